@@ -0,0 +1,38 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.UserContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class AsyncConfig {
+
+    // 异步接口中数据库查询、MQ发送等阻塞操作使用的线程池，有界队列，满了直接拒绝
+    // 提交方多是Lettuce事件循环线程，不能回到调用线程执行，通过AsyncUtils.supplyAsync提交，拒绝时返回失败的future，接口返回503
+    // 直接提交的任务在提交时捕获登录用户
+    @Bean(name = "ioExecutor", destroyMethod = "shutdown")
+    public ExecutorService ioExecutor() {
+        AtomicInteger index = new AtomicInteger();
+        return UserContext.wrap(new ThreadPoolExecutor(16, 64, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(2048),
+                r -> new Thread(r, "io-" + index.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy()));
+    }
+
+    // 秒杀下单专用线程池，线程会阻塞等待订单日志落盘
+    // Lua脚本已扣减Redis库存，任务不能被拒绝，也不能回到Lettuce事件循环线程执行，所以使用无界队列，由接口限流控制积压
+    @Bean(name = "seckillExecutor", destroyMethod = "shutdown")
+    public ExecutorService seckillExecutor() {
+        AtomicInteger index = new AtomicInteger();
+        return new ThreadPoolExecutor(32, 32, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> new Thread(r, "seckill-" + index.incrementAndGet()));
+    }
+}
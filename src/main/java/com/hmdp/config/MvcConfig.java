@@ -1,9 +1,15 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
+import com.hmdp.utils.LocalRateLimiter;
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.RateLimitInterceptor;
+import com.hmdp.utils.RedisRateLimiter;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SessionCache;
+import com.hmdp.utils.SignedTokenService;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.core.env.Environment;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -13,13 +19,29 @@ import javax.annotation.Resource;
 public class MvcConfig implements WebMvcConfigurer {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SessionCache sessionCache;
+
+    @Resource
+    private SignedTokenService signedTokenService;
+
+    @Resource
+    private LocalRateLimiter localRateLimiter;
+
+    @Resource
+    private RedisRateLimiter redisRateLimiter;
+
+    @Resource
+    private Environment environment;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
+        // 管理接口拦截器，校验管理令牌，不走用户登录
+        registry.addInterceptor(new AdminInterceptor(environment.getProperty("hmdp.admin.token")))
+                .addPathPatterns("/admin/**").order(-1);
         // 登录拦截器
         registry.addInterceptor(new LoginInterceptor())
                 .excludePathPatterns(
+                        "/admin/**",
                         "/user/login",
                         "/user/code",
                         "/blog/hot",
@@ -28,7 +50,10 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/upload/**",
                         "/voucher/**"
                 ).order(1);
+        // 限流拦截器，在token刷新之后执行，才能按用户限流
+        registry.addInterceptor(new RateLimitInterceptor(localRateLimiter, redisRateLimiter, environment))
+                .addPathPatterns("/**").order(2);
         // token刷新拦截器
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0) ;
+        registry.addInterceptor(new RefreshTokenInterceptor(sessionCache, signedTokenService)).addPathPatterns("/**").order(0) ;
     }
 }
@@ -0,0 +1,69 @@
+package com.hmdp.config;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.UserHolder;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+
+@Configuration
+public class RabbitConfig {
+
+    // 消息头中携带的登录用户
+    public static final String USER_HEADER = "x-user";
+
+    @Resource
+    private RabbitTemplate rabbitTemplate;
+
+    // 发送消息时把当前登录用户写入消息头
+    @PostConstruct
+    private void init() {
+        rabbitTemplate.addBeforePublishPostProcessors(message -> {
+            UserDTO user = UserHolder.getUser();
+            if (user != null) {
+                message.getMessageProperties().setHeader(USER_HEADER, JSONUtil.toJsonStr(user));
+            }
+            return message;
+        });
+    }
+
+    // 覆盖默认的监听容器工厂，消费消息时从消息头恢复登录用户，处理完还原
+    @Bean("rabbitListenerContainerFactory")
+    public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setAdviceChain((MethodInterceptor) invocation -> {
+            Object[] args = invocation.getArguments();
+            UserDTO user = null;
+            if (args.length > 1 && args[1] instanceof Message) {
+                Object header = ((Message) args[1]).getMessageProperties().getHeaders().get(USER_HEADER);
+                if (header != null && StrUtil.isNotBlank(header.toString())) {
+                    user = JSONUtil.toBean(header.toString(), UserDTO.class);
+                }
+            }
+            // 监听线程是复用的，没有携带用户的消息也要清掉上一条消息的用户
+            if (user == null) {
+                UserHolder.removeUser();
+            } else {
+                UserHolder.saveUser(user);
+            }
+            try {
+                return invocation.proceed();
+            } finally {
+                UserHolder.removeUser();
+            }
+        });
+        return factory;
+    }
+}
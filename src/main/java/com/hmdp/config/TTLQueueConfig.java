@@ -5,7 +5,9 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 @Configuration
 public class TTLQueueConfig {
@@ -18,6 +20,15 @@ public class TTLQueueConfig {
     public static final String QUEUE_A = "QA";
     // 死信队列名称
     public static final String DEAD_LETTER_QUEUE = "QD";
+    // 重试交换机名称，重试队列到期后死信回普通交换机重新消费
+    public static final String RETRY_EXCHANGE = "R";
+    // 重试队列名称前缀，按重试次数分级，延迟依次增加
+    public static final String RETRY_QUEUE_PREFIX = "QR";
+    // 各级重试队列的延迟，毫秒
+    public static final int[] RETRY_DELAYS = {1000, 5000, 25000, 125000};
+    // 停车场队列，重试用尽或无法解析的消息，等待人工处理
+    public static final String PARKING_LOT_QUEUE = "QP";
+    public static final String PARKING_LOT_ROUTING_KEY = "RP";
 
     @Bean("xExchange")
     public DirectExchange xExchange(){
@@ -53,4 +64,40 @@ public class TTLQueueConfig {
         return BindingBuilder.bind(queueD).to(yExchange).with("YD");
     }
 
+    @Bean("retryExchange")
+    public DirectExchange retryExchange(){
+        return new DirectExchange(RETRY_EXCHANGE);
+    }
+
+    // 分级重试队列，没有消费者，消息到期后死信回X交换机，重新进入QA
+    @Bean
+    public Declarables retryQueues(@Qualifier("retryExchange") DirectExchange retryExchange){
+        List<Declarable> declarables = new ArrayList<>();
+        for (int i = 0; i < RETRY_DELAYS.length; i++) {
+            final HashMap<String,Object> arguments = new HashMap<>();
+            arguments.put("x-dead-letter-exchange", X_EXCHANGE);
+            arguments.put("x-dead-letter-routing-key", "XA");
+            arguments.put("x-message-ttl", RETRY_DELAYS[i]);
+            Queue queue = QueueBuilder.durable(retryQueue(i)).withArguments(arguments).build();
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(retryExchange).with(retryQueue(i)));
+        }
+        return new Declarables(declarables);
+    }
+
+    @Bean("parkingLotQueue")
+    public Queue parkingLotQueue(){
+        return QueueBuilder.durable(PARKING_LOT_QUEUE).build();
+    }
+
+    @Bean
+    public Binding parkingLotBindingR(@Qualifier("parkingLotQueue")Queue parkingLotQueue, @Qualifier("retryExchange") DirectExchange retryExchange){
+        return BindingBuilder.bind(parkingLotQueue).to(retryExchange).with(PARKING_LOT_ROUTING_KEY);
+    }
+
+    // 第level级重试队列的名称，同时也是它的路由key
+    public static String retryQueue(int level){
+        return RETRY_QUEUE_PREFIX + (level + 1);
+    }
+
 }
@@ -1,14 +1,51 @@
 package com.hmdp.config;
 
 import com.hmdp.dto.Result;
+import com.hmdp.utils.RateLimitException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
 @Slf4j
 @RestControllerAdvice
 public class WebExceptionAdvice {
 
+    @ExceptionHandler(RateLimitException.class)
+    @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+    public Result handleRateLimitException(RateLimitException e) {
+        log.debug(e.getMessage());
+        return Result.fail("请求过于频繁，请稍后再试");
+    }
+
+    // 线程池已满，任务被拒绝
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public Result handleRejectedExecutionException(RejectedExecutionException e) {
+        log.warn("任务被拒绝: {}", e.getMessage());
+        return Result.fail("服务繁忙，请稍后再试");
+    }
+
+    // 异步接口返回的future失败时异常被包装为CompletionException，按原始异常处理
+    @ExceptionHandler(CompletionException.class)
+    public Result handleCompletionException(CompletionException e, HttpServletResponse response) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RejectedExecutionException) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            return handleRejectedExecutionException((RejectedExecutionException) cause);
+        }
+        if (cause instanceof RateLimitException) {
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            return handleRateLimitException((RateLimitException) cause);
+        }
+        return handleRuntimeException(e);
+    }
+
     @ExceptionHandler(RuntimeException.class)
     public Result handleRuntimeException(RuntimeException e) {
         log.error(e.toString(), e);
@@ -0,0 +1,58 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.OrderPublisher;
+import com.hmdp.utils.OrderRetryHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ *  运维管理接口，由AdminInterceptor校验管理令牌，普通用户无法访问
+ * </p>
+ */
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+
+    @Resource
+    private OrderPublisher orderPublisher;
+
+    @Resource
+    private OrderRetryHandler orderRetryHandler;
+
+    /**
+     * 查询订单消息发布统计
+     * @return 积压、在途、确认数和确认耗时
+     */
+    @GetMapping("voucher-order/publish/stats")
+    public Result queryPublishStats() {
+        return Result.ok(orderPublisher.stats());
+    }
+
+    /**
+     * 查看停车场中重试用尽的订单消息，消息仍保留在队列中
+     * @param count 最多查看的消息数
+     * @return 订单消息列表
+     */
+    @GetMapping("voucher-order/parking")
+    public Result queryParkedOrders(@RequestParam(value = "count", defaultValue = "100") Integer count) {
+        return Result.ok(orderRetryHandler.peekParked(count));
+    }
+
+    /**
+     * 批量重放停车场中的订单消息，失败次数清零
+     * @param count 最多重放的消息数
+     * @return 重放成功的消息数
+     */
+    @PostMapping("voucher-order/parking/replay")
+    public Result replayParkedOrders(@RequestParam(value = "count", defaultValue = "100") Integer count) {
+        return Result.ok(orderRetryHandler.replayParked(count));
+    }
+}
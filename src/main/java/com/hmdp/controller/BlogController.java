@@ -8,12 +8,19 @@ import com.hmdp.entity.Blog;
 import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CursorPager;
+import com.hmdp.utils.RateLimit;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UvCounter;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -30,12 +37,16 @@ public class BlogController {
     @Resource
     private IBlogService blogService;
 
+    @Resource
+    private UvCounter uvCounter;
+
     @PostMapping
     public Result saveBlog(@RequestBody Blog blog) {
         return blogService.saveBlog(blog);
     }
 
     @PutMapping("/like/{id}")
+    @RateLimit(key = "likeBlog", permits = 10, window = 10, backend = RateLimit.Backend.LOCAL)
     public Result likeBlog(@PathVariable("id") Long id) {
         return blogService.likeBlog(id);
     }
@@ -52,25 +63,51 @@ public class BlogController {
         return Result.ok(records);
     }
 
+    @GetMapping("/of/me/cursor")
+    public Result queryMyBlogByCursor(@RequestParam(value = "cursor", required = false) String cursor) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        // 根据用户游标分页查询
+        return CursorPager.query(blogService.query().eq("user_id", user.getId()),
+                null, null, Blog::getId, false, cursor, SystemConstants.MAX_PAGE_SIZE);
+    }
+
     @GetMapping("/hot")
     public Result queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
         return blogService.queryHotBlog(current);
     }
 
+    @GetMapping("/hot/cursor")
+    public Result queryHotBlogByCursor(@RequestParam(value = "cursor", required = false) String cursor) {
+        return blogService.queryHotBlogByCursor(cursor);
+    }
+
     @GetMapping("/{id}")
-    public Result queryBlogById(@PathVariable("id") Long id) {
+    public Result queryBlogById(@PathVariable("id") Long id, HttpServletRequest request) {
+        uvCounter.record(UvCounter.TYPE_BLOG, id, request);
         return blogService.queryBlogById(id);
     }
 
+    @GetMapping("/{id}/uv")
+    public Result queryBlogUv(
+            @PathVariable("id") Long id,
+            @RequestParam(value = "begin", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate begin,
+            @RequestParam(value = "end", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end
+    ) {
+        LocalDate today = LocalDate.now();
+        return Result.ok(uvCounter.count(UvCounter.TYPE_BLOG, id,
+                begin == null ? today : begin, end == null ? today : end));
+    }
+
     @GetMapping("/likes/{id}")
     public Result queryBlogLikes(@PathVariable("id") Long id) {
         return blogService.queryBlogLikes(id);
     }
 
     @GetMapping("/of/follow")
-    public Result queryBlogOfFollow(@RequestParam("lastId") Long max, @RequestParam(value = "offset", defaultValue = "0")
+    public CompletableFuture<Result> queryBlogOfFollow(@RequestParam("lastId") Long max, @RequestParam(value = "offset", defaultValue = "0")
     Integer offset) {
-        return blogService.queryBlogOfFollow(max, offset);
+        return blogService.queryBlogOfFollowAsync(max, offset);
     }
 
 }
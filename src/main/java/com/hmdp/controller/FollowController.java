@@ -3,9 +3,11 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IFollowService;
+import com.hmdp.utils.RateLimit;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * <p>
@@ -23,6 +25,7 @@ public class FollowController {
     private IFollowService followService;
 
     @PutMapping("/{id}/{isFollow}")
+    @RateLimit(key = "follow", permits = 30, window = 60)
     public Result follow(@PathVariable("id") Long followUserId, @PathVariable("isFollow") Boolean isFollow) {
         return followService.follow(followUserId,isFollow);
     }
@@ -32,9 +35,24 @@ public class FollowController {
         return followService.Isfollow(id);
     }
 
+    @GetMapping("/or/not")
+    public Result isFollowBatch(@RequestParam("ids") List<Long> ids) {
+        return followService.isFollowBatch(ids);
+    }
+
     @GetMapping("/common/{id}")
     public Result followCommons(@PathVariable("id") Long id) {
         return followService.followCommons(id);
     }
 
+    @GetMapping("/recommend")
+    public Result followRecommend(@RequestParam(value = "count", defaultValue = "10") Integer count) {
+        return followService.followRecommend(count);
+    }
+
+    @GetMapping("/count/{id}")
+    public Result followerCount(@PathVariable("id") Long id) {
+        return followService.followerCount(id);
+    }
+
 }
@@ -6,10 +6,16 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.CursorPager;
 import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UvCounter;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -26,14 +32,47 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private UvCounter uvCounter;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-        return shopService.queryShopById(id);
+    public CompletableFuture<Result> queryShopById(@PathVariable("id") Long id, HttpServletRequest request) {
+        uvCounter.record(UvCounter.TYPE_SHOP, id, request);
+        return shopService.queryShopByIdAsync(id);
+    }
+
+    /**
+     * 查询商铺详情页，商铺、优惠券和热门笔记一次返回
+     * @param id 商铺id
+     * @return 商铺详情页数据，超时的部分为空
+     */
+    @GetMapping("/{id}/page")
+    public CompletableFuture<Result> queryShopPage(@PathVariable("id") Long id, HttpServletRequest request) {
+        uvCounter.record(UvCounter.TYPE_SHOP, id, request);
+        return shopService.queryShopPage(id);
+    }
+
+    /**
+     * 查询商铺UV
+     * @param id 商铺id
+     * @param begin 开始日期，默认今天
+     * @param end 结束日期，默认今天
+     * @return 去重后的访客数
+     */
+    @GetMapping("/{id}/uv")
+    public Result queryShopUv(
+            @PathVariable("id") Long id,
+            @RequestParam(value = "begin", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate begin,
+            @RequestParam(value = "end", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end
+    ) {
+        LocalDate today = LocalDate.now();
+        return Result.ok(uvCounter.count(UvCounter.TYPE_SHOP, id,
+                begin == null ? today : begin, end == null ? today : end));
     }
 
     /**
@@ -43,10 +82,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库，并返回店铺id
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -78,6 +115,61 @@ public class ShopController {
         return Result.ok(page.getRecords());
     }
 
+    /**
+     * 根据商铺类型游标分页查询商铺信息，不统计总数
+     * @param typeId 商铺类型
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表和下一页游标
+     */
+    @GetMapping("/of/type/cursor")
+    public Result queryShopByTypeCursor(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return CursorPager.query(shopService.query().eq("type_id", typeId),
+                null, null, Shop::getId, false, cursor, SystemConstants.DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * 查询类型内的商铺排行榜
+     * @param typeId 商铺类型
+     * @param metric 排行指标，score、sold、comments
+     * @param current 页码
+     * @return 排名顺序的商铺列表和上榜总数
+     */
+    @GetMapping("/rank")
+    public Result queryShopRank(
+            @RequestParam("typeId") Long typeId,
+            @RequestParam(value = "metric", defaultValue = "score") String metric,
+            @RequestParam(value = "current", defaultValue = "1") Integer current
+    ) {
+        return shopService.queryShopRank(typeId, metric, current);
+    }
+
+    /**
+     * 按类型、商圈、均价区间筛选商铺
+     * @param typeId 商铺类型
+     * @param area 商圈
+     * @param minPrice 最低均价
+     * @param maxPrice 最高均价
+     * @param openNow 只查询正在营业的商铺
+     * @param sortBy 排序字段，score、sold、comments，不传按id排序
+     * @param current 页码
+     * @return 商铺列表和总数
+     */
+    @GetMapping("/search")
+    public Result searchShop(
+            @RequestParam(value = "typeId", required = false) Long typeId,
+            @RequestParam(value = "area", required = false) String area,
+            @RequestParam(value = "minPrice", required = false) Long minPrice,
+            @RequestParam(value = "maxPrice", required = false) Long maxPrice,
+            @RequestParam(value = "openNow", required = false) Boolean openNow,
+            @RequestParam(value = "sortBy", required = false) String sortBy,
+            @RequestParam(value = "current", defaultValue = "1") Integer current
+    ) {
+        return shopService.searchShop(typeId, area, minPrice, maxPrice, openNow, sortBy, current);
+    }
+
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
@@ -96,4 +188,19 @@ public class ShopController {
         // 返回数据
         return Result.ok(page.getRecords());
     }
+
+    /**
+     * 根据商铺名称关键字游标分页查询商铺信息，不统计总数
+     * @param name 商铺名称关键字
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表和下一页游标
+     */
+    @GetMapping("/of/name/cursor")
+    public Result queryShopByNameCursor(
+            @RequestParam(value = "name", required = false) String name,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return CursorPager.query(shopService.query().like(StrUtil.isNotBlank(name), "name", name),
+                null, null, Shop::getId, false, cursor, SystemConstants.MAX_PAGE_SIZE);
+    }
 }
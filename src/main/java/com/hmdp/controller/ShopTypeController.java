@@ -1,10 +1,15 @@
 package com.hmdp.controller;
 
 
-import com.hmdp.dto.Result;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.service.IShopTypeService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -26,10 +31,35 @@ public class ShopTypeController {
     private IShopTypeService typeService;
 
     @GetMapping("list")
-    public Result queryTypeList() {
+    public ResponseEntity<byte[]> queryTypeList(@RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
 //        List<ShopType> typeList = typeService
 //                .query().orderByAsc("sort").list();
 //        return Result.ok(typeList);
-        return typeService.queryTypeList();
+        // 直接返回快照中编码好的响应，内容未变化时返回304
+        ShopTypeSnapshot snapshot = typeService.getTypeSnapshot();
+        if (etagMatches(ifNoneMatch, snapshot.getEtag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.getEtag()).build();
+        }
+        return ResponseEntity.ok()
+                .eTag(snapshot.getEtag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(snapshot.getBody());
+    }
+
+    // If-None-Match可以是逗号分隔的多个ETag或*，比较时忽略弱校验前缀W/
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (StrUtil.isBlank(ifNoneMatch)) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if ("*".equals(candidate) || etag.equals(candidate)) {
+                return true;
+            }
+        }
+        return false;
     }
 }
@@ -1,14 +1,14 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
-import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
+import com.hmdp.service.ISignService;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.RateLimit;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
@@ -36,10 +36,14 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private ISignService signService;
+
     /**
      * 发送手机验证码
      */
     @PostMapping("code")
+    @RateLimit(key = "sendCode", permits = 5, window = 60, scope = RateLimit.Scope.IP)
     public Result sendCode(@RequestParam("phone") String phone, HttpSession session) {
         return userService.sendCode(phone,session);
     }
@@ -71,11 +75,34 @@ public class UserController {
 
     @GetMapping("/{id}")
     public Result getInfo(@PathVariable("id") Long userId){
-        User user = userService.query().eq("id", userId).one();
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
+        UserDTO userDTO = userService.queryUserDTO(userId);
         return Result.ok(userDTO);
     }
 
+    /**
+     * 今日签到
+     */
+    @PostMapping("/sign")
+    public Result sign(){
+        return signService.sign();
+    }
+
+    /**
+     * 当前连续签到天数
+     */
+    @GetMapping("/sign/count")
+    public Result signCount(){
+        return signService.signCount();
+    }
+
+    /**
+     * 本月签到天数
+     */
+    @GetMapping("/sign/month")
+    public Result signOfMonth(){
+        return signService.signOfMonth();
+    }
+
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId){
         // 查询详情
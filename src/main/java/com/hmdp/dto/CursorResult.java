@@ -0,0 +1,12 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class CursorResult {
+    private List<?> list;
+    // 下一页的游标，没有下一页时为空
+    private String cursor;
+}
@@ -0,0 +1,13 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+// 停车场队列中的订单消息，无法解析的消息只有error
+@Data
+public class ParkedOrderDTO {
+    private Long orderId;
+    private Long userId;
+    private Long voucherId;
+    private Integer attempts;
+    private String error;
+}
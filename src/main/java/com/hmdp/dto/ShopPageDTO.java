@@ -0,0 +1,17 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import lombok.Data;
+
+import java.util.List;
+
+// 商铺详情页聚合数据，超时或失败的部分为空，并记录在missing中
+@Data
+public class ShopPageDTO {
+    private Shop shop;
+    private List<Voucher> vouchers;
+    private List<Blog> blogs;
+    private List<String> missing;
+}
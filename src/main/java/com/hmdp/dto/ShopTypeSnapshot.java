@@ -0,0 +1,18 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.ShopType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+// 商铺类型列表的不可变快照，body是编码好的响应JSON，按etag支持304
+@Getter
+@AllArgsConstructor
+public class ShopTypeSnapshot {
+    // Redis中的版本号，变化时重新加载
+    private final String version;
+    private final List<ShopType> types;
+    private final byte[] body;
+    private final String etag;
+}
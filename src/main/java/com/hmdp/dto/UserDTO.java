@@ -1,5 +1,6 @@
 package com.hmdp.dto;
 
+import com.hmdp.entity.User;
 import lombok.Data;
 
 @Data
@@ -7,4 +8,12 @@ public class UserDTO {
     private Long id;
     private String nickName;
     private String icon;
+
+    public static UserDTO of(User user) {
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(user.getId());
+        userDTO.setNickName(user.getNickName());
+        userDTO.setIcon(user.getIcon());
+        return userDTO;
+    }
 }
@@ -0,0 +1,61 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * <p>
+ * 用户签到，每个用户每月一行
+ * </p>
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_sign")
+public class Sign implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 主键
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 用户id
+     */
+    private Long userId;
+
+    /**
+     * 签到的年
+     */
+    private Integer year;
+
+    /**
+     * 签到的月
+     */
+    private Integer month;
+
+    /**
+     * 签到的日期，按月归档时为当月1号
+     */
+    private LocalDate date;
+
+    /**
+     * 是否补签
+     */
+    private Boolean isBackup;
+
+    /**
+     * 当月签到记录，最高位为1号，与Redis bitmap的位序一致
+     */
+    private Long signBits;
+}
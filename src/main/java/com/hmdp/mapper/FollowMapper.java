@@ -2,6 +2,10 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Follow;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.session.ResultHandler;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +17,12 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface FollowMapper extends BaseMapper<Follow> {
 
+    // 流式读取全部关注关系
+    void streamAll(ResultHandler<Follow> handler);
+
+    // 批量新增关注，依赖唯一索引忽略重复数据
+    int insertIgnoreBatch(@Param("follows") List<Follow> follows);
+
+    // 批量取消关注
+    int deleteBatch(@Param("follows") List<Follow> follows);
 }
@@ -0,0 +1,18 @@
+package com.hmdp.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.entity.Sign;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ */
+public interface SignMapper extends BaseMapper<Sign> {
+
+    // 批量归档，重复执行时覆盖
+    int upsertBatch(@Param("signs") List<Sign> signs);
+}
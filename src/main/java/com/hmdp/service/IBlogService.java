@@ -4,6 +4,9 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -18,6 +21,11 @@ public interface IBlogService extends IService<Blog> {
 
     Result queryHotBlog(Integer current);
 
+    /**
+     * 按点赞数游标分页查询热门笔记
+     */
+    Result queryHotBlogByCursor(String cursor);
+
     Result likeBlog(Long id);
 
     Result queryBlogLikes(Long id);
@@ -25,4 +33,11 @@ public interface IBlogService extends IService<Blog> {
     Result saveBlog(Blog blog);
 
     Result queryBlogOfFollow(Long max, Integer offset);
+
+    CompletableFuture<Result> queryBlogOfFollowAsync(Long max, Integer offset);
+
+    /**
+     * 查询商铺点赞数最多的笔记
+     */
+    List<Blog> queryHotBlogOfShop(Long shopId, int count);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Follow;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -19,4 +21,10 @@ public interface IFollowService extends IService<Follow> {
     Result Isfollow(Long id);
 
     Result followCommons(Long id);
+
+    Result isFollowBatch(List<Long> ids);
+
+    Result followRecommend(Integer count);
+
+    Result followerCount(Long id);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,34 @@ public interface IShopService extends IService<Shop> {
 
     Result queryShopById(Long id);
 
+    CompletableFuture<Result> queryShopByIdAsync(Long id);
+
+    /**
+     * 并发查询商铺、优惠券和热门笔记，超时的部分返回空
+     */
+    CompletableFuture<Result> queryShopPage(Long id);
+
+    Result saveShop(Shop shop);
+
     Result updateShop(Shop shop);
+
+    /**
+     * 查询类型内按评分、销量或评论数排名的商铺
+     */
+    Result queryShopRank(Long typeId, String metric, Integer current);
+
+    /**
+     * 订单落库后增加商铺销量，先在本地累加，定时批量写入
+     */
+    void increaseSold(Long shopId, int delta);
+
+    /**
+     * 把累加的商铺销量写入数据库，并更新内存索引和排行榜
+     */
+    void flushSold();
+
+    /**
+     * 按类型、商圈、均价区间、是否正在营业筛选商铺并排序，优先使用内存索引
+     */
+    Result searchShop(Long typeId, String area, Long minPrice, Long maxPrice, Boolean openNow, String sortBy, Integer current);
 }
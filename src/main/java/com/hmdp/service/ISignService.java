@@ -0,0 +1,21 @@
+package com.hmdp.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Sign;
+
+/**
+ * <p>
+ *  服务类
+ * </p>
+ */
+public interface ISignService extends IService<Sign> {
+
+    Result sign();
+
+    Result signCount();
+
+    Result signOfMonth();
+
+    void archiveLastMonth();
+}
@@ -3,10 +3,12 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import java.util.List;
 
 /**
  * <p>
@@ -23,4 +25,16 @@ public interface IUserService extends IService<User> {
     Result login(LoginFormDTO loginForm, HttpSession session);
 
     Result logout(HttpServletRequest request);
+
+    /**
+     * 查询用户信息，优先读取本地缓存和Redis
+     * @return 用户不存在返回null
+     */
+    UserDTO queryUserDTO(Long id);
+
+    /**
+     * 批量查询用户信息
+     * @return 与ids顺序一致，不存在的用户会被跳过
+     */
+    List<UserDTO> queryUserDTOs(List<Long> ids);
 }
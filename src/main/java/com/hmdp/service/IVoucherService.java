@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,10 @@ public interface IVoucherService extends IService<Voucher> {
 
     Result queryVoucherOfShop(Long shopId);
 
+    /**
+     * 查询商铺的优惠券，秒杀券的库存取Redis中的实时库存
+     */
+    List<Voucher> queryVoucherListOfShop(Long shopId);
+
     void addSeckillVoucher(Voucher voucher);
 }
@@ -1,35 +1,40 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.AsyncUtils;
+import com.hmdp.utils.BatchLoader;
+import com.hmdp.utils.CursorPager;
+import com.hmdp.utils.ILikeStore;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RequestLoaders;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
-
 /**
  * <p>
  *  服务实现类
@@ -50,6 +55,18 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private ILikeStore likeStore;
+
+    @Resource
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+
+    @Resource(name = "ioExecutor")
+    private ExecutorService ioExecutor;
+
+    @Resource
+    private RequestLoaders requestLoaders;
+
     @Override
     public Result queryHotBlog(Integer current) {
         // 根据用户查询
@@ -58,39 +75,57 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog ->
-        {
-            queryBlogUser(blog);
-            if(UserHolder.getUser()!=null) {
-                isBlogLiked(blog);
-            }
-        });
+        // 批量查询用户
+        queryBlogUsers(records);
+        if(UserHolder.getUser()!=null) {
+            records.forEach(this::isBlogLiked);
+        }
         return Result.ok(records);
     }
 
+    @Override
+    public Result queryHotBlogByCursor(String cursor) {
+        return CursorPager.query(query(), "liked", Blog::getLiked, Blog::getId, true,
+                cursor, SystemConstants.MAX_PAGE_SIZE, records -> {
+                    // 批量查询用户
+                    queryBlogUsers(records);
+                    if(UserHolder.getUser()!=null) {
+                        records.forEach(this::isBlogLiked);
+                    }
+                });
+    }
+
+    @Override
+    public List<Blog> queryHotBlogOfShop(Long shopId, int count) {
+        List<Blog> blogs = query()
+                .eq("shop_id", shopId)
+                .orderByDesc("liked")
+                .last("LIMIT " + count)
+                .list();
+        queryBlogUsers(blogs);
+        if(UserHolder.getUser()!=null) {
+            blogs.forEach(this::isBlogLiked);
+        }
+        return blogs;
+    }
+
     @Override
     public Result likeBlog(Long id) {
         // 1. 判断登录用户
         Long userId = UserHolder.getUser().getId();
-        // 2. 判断是否点赞
-        String key = BLOG_LIKED_KEY+id;
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        if(score==null){
-            // 3. 如果未点赞
-            // 3.1 数据库点赞库+1
+        // 2. 尝试点赞，由存储引擎原子地判断是否已点赞
+        if(likeStore.like(id, userId)){
+            // 3. 如果未点赞，数据库点赞数+1
             boolean isSuccess = update().setSql("liked=liked+1").eq("id", id).update();
-            // 3.2 保存用户到Redis集合
-            if(isSuccess){
-                stringRedisTemplate.opsForZSet().add(key,userId.toString(),System.currentTimeMillis());
+            // 3.1 数据库更新失败，回滚Redis中的点赞
+            if(!isSuccess){
+                likeStore.unlike(id, userId);
             }
-        }else{
-            // 4. 如果已点赞，取消点赞
-            // 4.1 数据库点赞数-1
+        }else if(likeStore.unlike(id, userId)){
+            // 4. 如果已点赞，取消点赞，数据库点赞数-1
             boolean isSuccess = update().setSql("liked=liked-1").eq("id", id).update();
-            // 4.2 把用户从redis的set集合中移除
-            if(isSuccess){
-                stringRedisTemplate.opsForZSet().remove(key,userId.toString());
+            if(!isSuccess){
+                likeStore.like(id, userId);
             }
         }
         return Result.ok();
@@ -98,18 +133,14 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     @Override
     public Result queryBlogLikes(Long id) {
-        String key = BLOG_LIKED_KEY+id;
-        // 1.查询top5的点赞用户 zrange key 0 4
-        Set<String> top5 = stringRedisTemplate.opsForZSet().range(key, 0, 4);
+        // 1.查询top5的点赞用户
+        List<Long> ids = likeStore.topLikers(id, 5);
         // 2.解析用户id
-        List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
         if(ids.isEmpty()){
             return Result.ok();
         }
-        String idStr = StrUtil.join(",", ids);
-        // 3. 根据id查询用户 WHERE id IN(5,1) ORDER BY FIELD(id,5,1)
-        List<UserDTO> userDTOS = userService.query().in("id",ids).last("ORDER BY FIELD(id,"+idStr+")").list().
-                stream().map(user -> BeanUtil.copyProperties(user, UserDTO.class)).collect(Collectors.toList());
+        // 3. 根据id批量查询用户，保持点赞顺序
+        List<UserDTO> userDTOS = userService.queryUserDTOs(ids);
         // 4.返回
         return Result.ok(userDTOS);
     }
@@ -140,6 +171,25 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         String key = RedisConstants.FEED_KEY + userId;
         Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
                 .reverseRangeByScoreWithScores(key, 0, max, offset, 2);
+        return buildFeed(typedTuples, max, offset);
+    }
+
+    @Override
+    public CompletableFuture<Result> queryBlogOfFollowAsync(Long max, Integer offset) {
+        // 1.获取当前用户
+        Long userId = UserHolder.getUser().getId();
+        // 2.非阻塞查询收件箱，查询blog在ioExecutor中执行，并带上当前登录用户
+        String key = RedisConstants.FEED_KEY + userId;
+        return reactiveStringRedisTemplate.opsForZSet()
+                .reverseRangeByScoreWithScores(key, Range.closed(0d, max.doubleValue()),
+                        RedisZSetCommands.Limit.limit().offset(offset).count(2))
+                .collect(Collectors.toCollection(LinkedHashSet::new))
+                .toFuture()
+                .thenCompose(UserHolder.wrap(typedTuples ->
+                        AsyncUtils.supplyAsync(() -> buildFeed(typedTuples, max, offset), ioExecutor)));
+    }
+
+    private Result buildFeed(Set<ZSetOperations.TypedTuple<String>> typedTuples, Long max, Integer offset) {
         // 3.非空判断
         if (typedTuples == null || typedTuples.isEmpty()) {
             return Result.ok();
@@ -161,16 +211,12 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             }
         }
         os = minTime == max ? os : os + offset;
-        // 5.根据id查询blog
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-
-        for (Blog blog : blogs) {
-            // 5.1.查询blog有关的用户
-            queryBlogUser(blog);
-            // 5.2.查询blog是否被点赞
-            isBlogLiked(blog);
-        }
+        // 5.根据id批量查询blog，保持收件箱顺序
+        List<Blog> blogs = requestLoaders.blogs().loadMany(ids);
+        // 5.1.批量查询blog有关的用户
+        queryBlogUsers(blogs);
+        // 5.2.查询blog是否被点赞
+        blogs.forEach(this::isBlogLiked);
 
         // 6.封装并返回
         ScrollResult r = new ScrollResult();
@@ -197,14 +243,29 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     private void isBlogLiked(Blog blog) {
         Long userId = UserHolder.getUser().getId();
-        String key = BLOG_LIKED_KEY+blog.getId();
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        blog.setIsLike(score!=null);
+        blog.setIsLike(likeStore.isLiked(blog.getId(), userId));
+    }
+
+    // 登记所有blog的作者，一次批量查询后填充
+    private void queryBlogUsers(List<Blog> blogs) {
+        BatchLoader<Long, UserDTO> loader = requestLoaders.users();
+        for (Blog blog : blogs) {
+            loader.load(blog.getUserId(), user -> {
+                if (user != null) {
+                    blog.setName(user.getNickName());
+                    blog.setIcon(user.getIcon());
+                }
+            });
+        }
+        loader.dispatch();
     }
 
     private void queryBlogUser(Blog blog) {
         Long userId = blog.getUserId();
-        User user = userService.getById(userId);
+        UserDTO user = userService.queryUserDTO(userId);
+        if(user == null){
+            return;
+        }
         blog.setName(user.getNickName());
         blog.setIcon(user.getIcon());
     }
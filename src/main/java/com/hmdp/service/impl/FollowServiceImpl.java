@@ -1,7 +1,6 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import cn.hutool.core.util.BooleanUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
@@ -9,16 +8,33 @@ import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.FollowGraph;
+import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.util.Collections;
-import java.util.List;
-import java.util.Set;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
@@ -27,6 +43,7 @@ import java.util.stream.Collectors;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
 
@@ -36,49 +53,312 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     @Resource
     public IUserService userService;
 
+    @Resource
+    private FollowGraph followGraph;
+
+    private static final DefaultRedisScript<Long> FOLLOW_SCRIPT;
+    static {
+        FOLLOW_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_SCRIPT.setLocation(new ClassPathResource("follow.lua"));
+        FOLLOW_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final DefaultRedisScript<Long> FOLLOW_LOAD_SCRIPT;
+    static {
+        FOLLOW_LOAD_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_LOAD_SCRIPT.setLocation(new ClassPathResource("follow_load.lua"));
+        FOLLOW_LOAD_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final DefaultRedisScript<Long> FOLLOW_PERSIST_SCRIPT;
+    static {
+        FOLLOW_PERSIST_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_PERSIST_SCRIPT.setLocation(new ClassPathResource("follow_persist.lua"));
+        FOLLOW_PERSIST_SCRIPT.setResultType(Long.class);
+    }
+
+    // 每批最多合并的变更数量
+    private static final int FOLLOW_BATCH_SIZE = 500;
+    // 重建关注集合时数据库快照不完整的最大重试次数
+    private static final int FOLLOW_LOAD_RETRIES = 3;
+    private static final String FOLLOW_LOADING_MESSAGE = "关注关系加载中，请稍后再试";
+    // 消费者名称，每个实例不同，重启后仍能找回自己未确认的变更
+    private static final String FOLLOW_CONSUMER = ManagementFactory.getRuntimeMXBean().getName();
+
+    private static final ExecutorService FOLLOW_PERSIST_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    // 在当前类初始化完成后执行
+    @PostConstruct
+    private void init(){
+        createStreamGroup();
+        FOLLOW_PERSIST_EXECUTOR.submit(new FollowChangeHandler());
+    }
+
     @Override
     public Result follow(Long followUserId, Boolean isFollow) {
         // 1.判断到底是关注还是取关
         Long userId = UserHolder.getUser().getId();
-        String key = "follows:" + userId;
-        if(isFollow){
-            // 2. 关注，新增数据
-            Follow follow = new Follow();
-            follow.setUserId(userId);
-            follow.setFollowUserId(followUserId);
-            boolean isSuccess = save(follow);
-            if(isSuccess){
-                stringRedisTemplate.opsForSet().add(key,followUserId.toString());
+        String key = loadFollowSet(userId);
+        if(key == null){
+            return Result.fail(FOLLOW_LOADING_MESSAGE);
+        }
+        // 2.执行lua脚本，原子地修改关注集合并写入变更日志，数据库由后台线程批量持久化
+        Long changed = stringRedisTemplate.execute(
+                FOLLOW_SCRIPT,
+                Arrays.asList(key, FOLLOW_STREAM_KEY),
+                userId.toString(), followUserId.toString(), BooleanUtil.isTrue(isFollow) ? "1" : "0"
+        );
+        // 3.关注关系确实发生变化，更新关注图
+        if(changed != null && changed == 1){
+            if(BooleanUtil.isTrue(isFollow)){
+                followGraph.addEdge(userId, followUserId);
+            }else{
+                followGraph.removeEdge(userId, followUserId);
             }
-        }else{
-            // 3.取关
-            remove(new QueryWrapper<Follow>().eq("user_id", userId).eq("follow_user_id", followUserId));
-            stringRedisTemplate.opsForSet().remove(key,followUserId.toString());
         }
         return Result.ok();
     }
 
+    private class FollowChangeHandler implements Runnable {
+        @Override
+        public void run() {
+            // 1.启动时先接管其他实例长时间未确认的变更，再处理自己未确认的变更
+            claimIdlePending();
+            drainPending();
+            while (true) {
+                try {
+                    // 2.读取新的变更 XREADGROUP GROUP g1 consumer COUNT 500 BLOCK 2000 STREAMS stream.follows >
+                    List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(FOLLOW_STREAM_GROUP, FOLLOW_CONSUMER),
+                            StreamReadOptions.empty().count(FOLLOW_BATCH_SIZE).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(FOLLOW_STREAM_KEY, ReadOffset.lastConsumed())
+                    );
+                    if (records == null || records.isEmpty()) {
+                        continue;
+                    }
+                    // 3.批量写入数据库并确认
+                    persistFollowChanges(records);
+                } catch (Exception e) {
+                    log.error("处理关注变更异常", e);
+                    drainPending();
+                }
+            }
+        }
+
+        // 已下线实例的消费者留下的pending变更，XCLAIM给当前消费者
+        private void claimIdlePending() {
+            try {
+                PendingMessages pending = stringRedisTemplate.opsForStream()
+                        .pending(FOLLOW_STREAM_KEY, FOLLOW_STREAM_GROUP, Range.unbounded(), FOLLOW_BATCH_SIZE * 10L);
+                RecordId[] ids = pending.stream()
+                        .filter(message -> !FOLLOW_CONSUMER.equals(message.getConsumerName()))
+                        .filter(message -> message.getElapsedTimeSinceLastDelivery().toMillis() >= FOLLOW_PENDING_CLAIM_IDLE)
+                        .map(PendingMessage::getId)
+                        .toArray(RecordId[]::new);
+                if (ids.length == 0) {
+                    return;
+                }
+                stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.streamCommands().xClaimJustId(
+                        FOLLOW_STREAM_KEY.getBytes(), FOLLOW_STREAM_GROUP, FOLLOW_CONSUMER,
+                        RedisStreamCommands.XClaimOptions.minIdle(Duration.ofMillis(FOLLOW_PENDING_CLAIM_IDLE)).ids(ids)));
+                log.info("接管其他消费者未确认的关注变更{}条", ids.length);
+            } catch (Exception e) {
+                log.error("接管pending关注变更异常", e);
+            }
+        }
+
+        private void drainPending() {
+            while (true) {
+                try {
+                    // 读取已投递但未确认的变更 XREADGROUP ... STREAMS stream.follows 0
+                    List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(FOLLOW_STREAM_GROUP, FOLLOW_CONSUMER),
+                            StreamReadOptions.empty().count(FOLLOW_BATCH_SIZE),
+                            StreamOffset.create(FOLLOW_STREAM_KEY, ReadOffset.from("0"))
+                    );
+                    if (records == null || records.isEmpty()) {
+                        return;
+                    }
+                    persistFollowChanges(records);
+                } catch (Exception e) {
+                    log.error("处理pending关注变更异常", e);
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private void persistFollowChanges(List<MapRecord<String, Object, Object>> records) {
+        // 1.合并同一关注关系的多次变更，以最后一次为准
+        Map<String, Follow> follows = new LinkedHashMap<>();
+        Map<String, Boolean> ops = new HashMap<>();
+        for (MapRecord<String, Object, Object> record : records) {
+            Map<Object, Object> value = record.getValue();
+            Follow follow = new Follow();
+            follow.setUserId(Long.valueOf(value.get("userId").toString()));
+            follow.setFollowUserId(Long.valueOf(value.get("followUserId").toString()));
+            String edge = follow.getUserId() + ":" + follow.getFollowUserId();
+            follows.put(edge, follow);
+            ops.put(edge, "1".equals(value.get("op")));
+        }
+        List<Follow> inserts = new ArrayList<>();
+        List<Follow> deletes = new ArrayList<>();
+        follows.forEach((edge, follow) -> (ops.get(edge) ? inserts : deletes).add(follow));
+        // 2.批量写入数据库，INSERT IGNORE和DELETE都是幂等的，重复执行没有副作用
+        if (!inserts.isEmpty()) {
+            getBaseMapper().insertIgnoreBatch(inserts);
+        }
+        if (!deletes.isEmpty()) {
+            getBaseMapper().deleteBatch(deletes);
+        }
+        // 3.在脚本中确认、删除已持久化的变更并增加已持久化变更数
+        // 重建时看不到某条变更，说明它已被删除，计数也一定已变化，快照会被判定为不完整
+        List<String> args = new ArrayList<>(records.size() + 1);
+        args.add(FOLLOW_STREAM_GROUP);
+        records.forEach(record -> args.add(record.getId().getValue()));
+        stringRedisTemplate.execute(FOLLOW_PERSIST_SCRIPT,
+                Arrays.asList(FOLLOW_STREAM_KEY, FOLLOW_PERSIST_SEQ_KEY), args.toArray());
+        log.debug("持久化关注变更{}条，新增{}，删除{}", records.size(), inserts.size(), deletes.size());
+    }
+
+    // 创建消费者组，stream不存在时一并创建
+    private void createStreamGroup() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XGROUP",
+                    "CREATE".getBytes(), FOLLOW_STREAM_KEY.getBytes(), FOLLOW_STREAM_GROUP.getBytes(),
+                    "0".getBytes(), "MKSTREAM".getBytes()));
+        } catch (Exception e) {
+            // 消费者组已存在
+            log.debug("关注变更消费者组已存在: {}", e.getMessage());
+        }
+    }
+
     @Override
     public Result Isfollow(Long followUserId) {
         Long userId = UserHolder.getUser().getId();
-        // 1.查询是否关注
-        Integer count = query().eq("user_id", userId).eq("follow_user_id", followUserId).count();
-        return Result.ok(count>0);
+        // 1.从Redis关注集合查询是否关注
+        String key = loadFollowSet(userId);
+        if(key == null){
+            return Result.fail(FOLLOW_LOADING_MESSAGE);
+        }
+        Boolean isMember = stringRedisTemplate.opsForSet().isMember(key, followUserId.toString());
+        return Result.ok(Boolean.TRUE.equals(isMember));
+    }
+
+    @Override
+    public Result isFollowBatch(List<Long> ids) {
+        if(ids == null || ids.isEmpty()){
+            return Result.ok(Collections.emptyMap());
+        }
+        Long userId = UserHolder.getUser().getId();
+        String key = loadFollowSet(userId);
+        if(key == null){
+            return Result.fail(FOLLOW_LOADING_MESSAGE);
+        }
+        // 1.用pipeline批量执行SISMEMBER，一次网络往返
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                for (Long id : ids) {
+                    operations.opsForSet().isMember(key, id.toString());
+                }
+                return null;
+            }
+        });
+        // 2.按请求顺序组装结果
+        Map<Long, Boolean> followed = new LinkedHashMap<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            followed.put(ids.get(i), Boolean.TRUE.equals(results.get(i)));
+        }
+        return Result.ok(followed);
     }
 
     @Override
     public Result followCommons(Long id) {
         Long userId = UserHolder.getUser().getId();
-        String key = "follows:" + userId;
-        String key2 = "follows:" + id;
+        // 关注图已加载时直接在内存中求交集
+        if(followGraph.isReady()){
+            return Result.ok(queryUsers(followGraph.commonFollows(userId, id)));
+        }
+        String key = loadFollowSet(userId);
+        String key2 = loadFollowSet(id);
+        if(key == null || key2 == null){
+            return Result.fail(FOLLOW_LOADING_MESSAGE);
+        }
         Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key, key2);
         if(intersect==null||intersect.isEmpty()){
             return Result.ok(Collections.emptyList());
         }
-        List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
-        List<UserDTO> users = userService.listByIds(ids).stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
-        return Result.ok(users);
+        List<Long> ids = intersect.stream()
+                .filter(member -> !FOLLOW_PLACEHOLDER.equals(member))
+                .map(Long::valueOf).collect(Collectors.toList());
+        return Result.ok(queryUsers(ids));
+    }
+
+    @Override
+    public Result followRecommend(Integer count) {
+        if(!followGraph.isReady()){
+            return Result.fail(FOLLOW_LOADING_MESSAGE);
+        }
+        Long userId = UserHolder.getUser().getId();
+        List<Long> ids = followGraph.recommend(userId, Math.min(Math.max(count, 1), SystemConstants.MAX_PAGE_SIZE));
+        return Result.ok(queryUsers(ids));
+    }
+
+    @Override
+    public Result followerCount(Long id) {
+        if(followGraph.isReady()){
+            return Result.ok(followGraph.followerCount(id));
+        }
+        return Result.ok(query().eq("follow_user_id", id).count());
+    }
+
+    private List<UserDTO> queryUsers(List<Long> ids) {
+        if(ids.isEmpty()){
+            return Collections.emptyList();
+        }
+        return userService.queryUserDTOs(ids);
+    }
+
+    // 确保用户的关注集合在Redis中存在，不存在时从数据库重建，并重放stream中还未持久化的变更
+    // 重试用尽仍无法得到完整快照时返回null，不缓存不完整的集合
+    private String loadFollowSet(Long userId) {
+        String key = FOLLOW_KEY + userId;
+        // 1.集合存在，直接返回
+        if(Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))){
+            return key;
+        }
+        for (int i = 1; i <= FOLLOW_LOAD_RETRIES; i++) {
+            // 2.记录已持久化变更数，再查询数据库
+            String seq = stringRedisTemplate.opsForValue().get(FOLLOW_PERSIST_SEQ_KEY);
+            seq = seq == null ? "0" : seq;
+            List<Follow> follows = query().select("follow_user_id").eq("user_id", userId).list();
+            // 3.脚本中写入快照并重放变更，占位成员保证空集合也能被缓存
+            List<String> args = new ArrayList<>(follows.size() + 4);
+            args.add(seq);
+            args.add(String.valueOf(FOLLOW_LOAD_REPLAY_LIMIT));
+            args.add(userId.toString());
+            args.add(FOLLOW_PLACEHOLDER);
+            for (Follow follow : follows) {
+                args.add(follow.getFollowUserId().toString());
+            }
+            Long loaded = stringRedisTemplate.execute(
+                    FOLLOW_LOAD_SCRIPT, Arrays.asList(key, FOLLOW_STREAM_KEY, FOLLOW_PERSIST_SEQ_KEY), args.toArray());
+            // 4.重建成功；查询期间有变更被持久化时重新查询；变更积压过多时放弃
+            if (loaded != null && loaded == 1) {
+                return key;
+            }
+            if (loaded != null && loaded < 0) {
+                log.warn("关注变更积压过多，暂不重建关注集合，userId:{}", userId);
+                break;
+            }
+        }
+        return null;
     }
 }
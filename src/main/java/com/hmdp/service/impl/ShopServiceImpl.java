@@ -6,27 +6,45 @@ import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopPageDTO;
+import com.hmdp.entity.Blog;
 import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.IBlogService;
 import com.hmdp.service.IShopService;
+import com.hmdp.service.IVoucherService;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.AsyncCacheClient;
+import com.hmdp.utils.AsyncUtils;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.OpenHours;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopIndex;
+import com.hmdp.utils.ShopLeaderboard;
+import com.hmdp.utils.UserContext;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.tomcat.jni.Local;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import java.sql.Time;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.*;
 
 /**
  * <p>
@@ -36,6 +54,7 @@ import static com.hmdp.utils.RedisConstants.*;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
@@ -45,6 +64,29 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private AsyncCacheClient asyncCacheClient;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private IBlogService blogService;
+
+    @Resource(name = "ioExecutor")
+    private ExecutorService ioExecutor;
+
+    @Resource
+    private ShopIndex shopIndex;
+
+    @Resource
+    private ShopLeaderboard shopLeaderboard;
+
+    private static final ScheduledExecutorService SHOP_PAGE_TIMER = Executors.newSingleThreadScheduledExecutor();
+
+    // 商铺id -> 还没有写入数据库的销量增量
+    private final ConcurrentHashMap<Long, Long> soldDeltas = new ConcurrentHashMap<>();
+
     @Override
     public Result queryShopById(Long id) {
         // Shop shop = cacheClient.queryWithPathThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_NULL_TTL,TimeUnit.MINUTES);
@@ -58,6 +100,53 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
+    @Override
+    public CompletableFuture<Result> queryShopByIdAsync(Long id) {
+        return asyncCacheClient.queryWithLogicExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_NULL_TTL, TimeUnit.MINUTES)
+                .thenApply(shop -> shop == null ? Result.fail("店铺不存在") : Result.ok(shop));
+    }
+
+    @Override
+    public CompletableFuture<Result> queryShopPage(Long id) {
+        List<String> missing = Collections.synchronizedList(new ArrayList<>());
+        // 1.并发查询三部分，各自超时，失败时记录缺失的部分并返回空
+        CompletableFuture<Shop> shopFuture = within(
+                asyncCacheClient.queryWithLogicExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_NULL_TTL, TimeUnit.MINUTES),
+                SHOP_PAGE_SHOP_TIMEOUT, "shop", missing);
+        CompletableFuture<List<Voucher>> voucherFuture = within(
+                AsyncUtils.supplyAsync(() -> voucherService.queryVoucherListOfShop(id), ioExecutor),
+                SHOP_PAGE_VOUCHER_TIMEOUT, "vouchers", missing);
+        CompletableFuture<List<Blog>> blogFuture = within(
+                AsyncUtils.supplyAsync(() -> blogService.queryHotBlogOfShop(id, SHOP_PAGE_BLOG_SIZE), ioExecutor),
+                SHOP_PAGE_BLOG_TIMEOUT, "blogs", missing);
+        // 2.全部完成后组装，耗时取决于最慢的一部分
+        return CompletableFuture.allOf(shopFuture, voucherFuture, blogFuture).thenApply(v -> {
+            Shop shop = shopFuture.join();
+            if (shop == null && missing.isEmpty()) {
+                return Result.fail("店铺不存在");
+            }
+            ShopPageDTO page = new ShopPageDTO();
+            page.setShop(shop);
+            page.setVouchers(voucherFuture.join());
+            page.setBlogs(blogFuture.join());
+            page.setMissing(missing.isEmpty() ? null : missing);
+            return Result.ok(page);
+        });
+    }
+
+    // 给future加上超时，超时或异常时返回null，并记录缺失的部分
+    private static <T> CompletableFuture<T> within(CompletableFuture<T> future, long timeoutMillis, String part, List<String> missing) {
+        CompletableFuture<T> timeout = new CompletableFuture<>();
+        ScheduledFuture<?> timer = SHOP_PAGE_TIMER.schedule(
+                () -> timeout.completeExceptionally(new TimeoutException()), timeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((r, e) -> timer.cancel(false));
+        return future.applyToEither(timeout, r -> r).exceptionally(e -> {
+            log.warn("商铺详情页查询{}失败", part, e);
+            missing.add(part);
+            return null;
+        });
+    }
+
     // 运用互斥锁解决缓存雪崩
     public Shop queryWithMutex(Long id){
         // 1.从redis查询商户缓存
@@ -100,7 +189,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return shop;
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private static final ExecutorService CACHE_REBUILD_EXECUTOR = UserContext.wrap(Executors.newFixedThreadPool(10));
 
     // 运用逻辑过期解决缓存雪崩，需要提前加入热点key进行缓存预热
     public Shop queryWithLogicExpire(Long id){
@@ -191,10 +280,175 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if(id==null){
             return Result.fail("店铺不能为空");
         }
+        // 修改了类型时，需要从原类型的排行榜中移除
+        Long previousTypeId = null;
+        if (shop.getTypeId() != null) {
+            Shop before = getById(id);
+            previousTypeId = before == null ? null : before.getTypeId();
+        }
         // 1.更新数据库
         updateById(shop);
-        // 2.删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        // 2.事务提交后删除缓存，并用完整的商铺数据更新内存索引和排行榜，回滚时不会留下未提交的数据
+        Shop updated = getById(id);
+        Long typeId = previousTypeId;
+        afterCommit(() -> {
+            stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+            if (updated != null) {
+                shopIndex.put(updated);
+                shopLeaderboard.update(updated, typeId);
+            }
+        });
         return Result.ok();
     }
+
+    // 在事务中时等提交后再执行，否则立即执行
+    private void afterCommit(Runnable task) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    task.run();
+                }
+            });
+        } else {
+            task.run();
+        }
+    }
+
+    @Override
+    public void increaseSold(Long shopId, int delta) {
+        // 只在本地累加，由定时任务合并写入，热门商铺不会每单更新一次同一行
+        soldDeltas.merge(shopId, (long) delta, Long::sum);
+    }
+
+    // 定时把累加的销量写入数据库，再用最新的商铺数据更新内存索引和排行榜
+    @Scheduled(fixedDelay = SHOP_SOLD_FLUSH_INTERVAL)
+    @PreDestroy
+    public void flushSold() {
+        if (soldDeltas.isEmpty()) {
+            return;
+        }
+        List<Long> shopIds = new ArrayList<>();
+        for (Long shopId : soldDeltas.keySet()) {
+            // 1.取出并移除累加值，之后的订单重新累加，不会丢失
+            Long delta = soldDeltas.remove(shopId);
+            if (delta == null || delta == 0) {
+                continue;
+            }
+            // 2.每个商铺一次UPDATE，失败时放回下次重试
+            try {
+                update().setSql("sold = sold + " + delta).eq("id", shopId).update();
+                shopIds.add(shopId);
+            } catch (Exception e) {
+                soldDeltas.merge(shopId, delta, Long::sum);
+                log.error("更新商铺销量失败，shopId:{}", shopId, e);
+            }
+        }
+        if (shopIds.isEmpty()) {
+            return;
+        }
+        // 3.批量查询更新后的商铺
+        for (Shop shop : listByIds(shopIds)) {
+            shopIndex.put(shop);
+            shopLeaderboard.update(shop, null);
+        }
+    }
+
+    @Override
+    public Result queryShopRank(Long typeId, String metric, Integer current) {
+        if (!ShopIndex.isSortKey(metric)) {
+            return Result.fail("不支持的排行指标");
+        }
+        // 1.查询当前页的商铺id
+        String key = ShopLeaderboard.key(metric, typeId);
+        int from = (Math.max(current, 1) - 1) * DEFAULT_PAGE_SIZE;
+        Set<String> members = stringRedisTemplate.opsForZSet().reverseRange(key, from, from + DEFAULT_PAGE_SIZE - 1);
+        if (members == null || members.isEmpty()) {
+            return Result.ok(Collections.emptyList(), 0L);
+        }
+        List<Long> ids = members.stream().map(Long::valueOf).collect(Collectors.toList());
+        // 2.批量读取商铺缓存
+        List<Shop> shops = queryShopsWithCache(ids);
+        Long total = stringRedisTemplate.opsForZSet().zCard(key);
+        return Result.ok(shops, total);
+    }
+
+    // 一次MGET读取商铺缓存，未命中的批量查询数据库并写入缓存，按ids的顺序返回
+    private List<Shop> queryShopsWithCache(List<Long> ids) {
+        List<String> keys = ids.stream().map(id -> CACHE_SHOP_KEY + id).collect(Collectors.toList());
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        Map<Long, Shop> found = new HashMap<>(ids.size());
+        List<Long> missIds = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            String json = values == null ? null : values.get(i);
+            if (StrUtil.isBlank(json)) {
+                missIds.add(ids.get(i));
+                continue;
+            }
+            // 不是逻辑过期格式的缓存（如直接缓存的商铺json）按未命中处理
+            RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+            Object data = redisData.getData();
+            if (!(data instanceof JSONObject)) {
+                missIds.add(ids.get(i));
+                continue;
+            }
+            found.put(ids.get(i), JSONUtil.toBean((JSONObject) data, Shop.class));
+        }
+        if (!missIds.isEmpty()) {
+            for (Shop shop : listByIds(missIds)) {
+                found.put(shop.getId(), shop);
+                cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + shop.getId(), shop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            }
+        }
+        List<Shop> shops = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Shop shop = found.get(id);
+            if (shop != null) {
+                shops.add(shop);
+            }
+        }
+        return shops;
+    }
+
+    @Override
+    public Result saveShop(Shop shop) {
+        // 1.写入数据库
+        save(shop);
+        // 2.重新查询，带上数据库的默认值，写入内存索引和排行榜
+        Shop saved = getById(shop.getId());
+        if (saved != null) {
+            shopIndex.put(saved);
+            shopLeaderboard.update(saved, null);
+        }
+        return Result.ok(shop.getId());
+    }
+
+    @Override
+    public Result searchShop(Long typeId, String area, Long minPrice, Long maxPrice, Boolean openNow, String sortBy, Integer current) {
+        if (sortBy != null && !ShopIndex.isSortKey(sortBy)) {
+            return Result.fail("不支持的排序字段");
+        }
+        current = Math.max(current, 1);
+        int from = (current - 1) * DEFAULT_PAGE_SIZE;
+        // 1.索引已加载，直接在内存中查询
+        if (shopIndex.isReady()) {
+            Integer openAt = BooleanUtil.isTrue(openNow) ? OpenHours.minuteOfWeek(LocalDateTime.now()) : null;
+            ShopIndex.Page page = shopIndex.query(typeId, area, minPrice, maxPrice, openAt, sortBy, from, DEFAULT_PAGE_SIZE);
+            return Result.ok(page.getShops(), page.getTotal());
+        }
+        // 2.索引加载中，营业时间无法在数据库中筛选
+        if (BooleanUtil.isTrue(openNow)) {
+            return Result.fail("商铺数据加载中，请稍后再试");
+        }
+        // 3.索引加载中，查询数据库
+        Page<Shop> page = query()
+                .eq(typeId != null, "type_id", typeId)
+                .eq(area != null, "area", area)
+                .ge(minPrice != null, "avg_price", minPrice)
+                .le(maxPrice != null, "avg_price", maxPrice)
+                .orderByDesc(sortBy != null, sortBy)
+                .orderByAsc("id")
+                .page(new Page<>(current, DEFAULT_PAGE_SIZE));
+        return Result.ok(page.getRecords(), page.getTotal());
+    }
 }
@@ -2,20 +2,31 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.Shop;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.baomidou.mybatisplus.core.conditions.Wrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
 
 import javax.annotation.Resource;
 
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
-import static com.hmdp.utils.RedisConstants.CACHE_SHOPTYPE_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -25,24 +36,150 @@ import static com.hmdp.utils.RedisConstants.CACHE_SHOPTYPE_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private ObjectMapper objectMapper;
+
+    // 当前快照，刷新时整体替换
+    private volatile ShopTypeSnapshot snapshot;
+
     @Override
     public Result queryTypeList() {
+        List<ShopType> shopTypeList = getTypeSnapshot().getTypes();
+        if(shopTypeList.isEmpty()){
+            return Result.fail("商店类型不存在");
+        }
+        return Result.ok(shopTypeList);
+    }
+
+    @Override
+    public ShopTypeSnapshot getTypeSnapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = loadSnapshot(currentVersion());
+            }
+            return snapshot;
+        }
+    }
+
+    // 定时检查Redis中的版本号，变化时加载新快照
+    @Scheduled(fixedDelay = CACHE_SHOPTYPE_CHECK_INTERVAL)
+    public void refreshTypeSnapshot() {
+        ShopTypeSnapshot current = snapshot;
+        if (current == null) {
+            // 还没有被访问过，等首次访问时加载
+            return;
+        }
+        try {
+            String version = currentVersion();
+            if (!version.equals(current.getVersion())) {
+                snapshot = loadSnapshot(version);
+            }
+        } catch (Exception e) {
+            log.error("刷新商铺类型快照失败", e);
+        }
+    }
+
+    // 通过service修改商铺类型的方法都要发布变更，直接使用ShopTypeMapper或链式update()写入不会刷新快照
+    @Override
+    public boolean save(ShopType shopType) {
+        return publishIfChanged(super.save(shopType));
+    }
+
+    @Override
+    public boolean saveBatch(Collection<ShopType> entityList, int batchSize) {
+        return publishIfChanged(super.saveBatch(entityList, batchSize));
+    }
+
+    @Override
+    public boolean saveOrUpdateBatch(Collection<ShopType> entityList, int batchSize) {
+        return publishIfChanged(super.saveOrUpdateBatch(entityList, batchSize));
+    }
+
+    @Override
+    public boolean updateById(ShopType shopType) {
+        return publishIfChanged(super.updateById(shopType));
+    }
+
+    @Override
+    public boolean updateBatchById(Collection<ShopType> entityList, int batchSize) {
+        return publishIfChanged(super.updateBatchById(entityList, batchSize));
+    }
+
+    @Override
+    public boolean update(ShopType entity, Wrapper<ShopType> updateWrapper) {
+        return publishIfChanged(super.update(entity, updateWrapper));
+    }
+
+    @Override
+    public boolean removeById(Serializable id) {
+        return publishIfChanged(super.removeById(id));
+    }
+
+    @Override
+    public boolean removeByIds(Collection<? extends Serializable> idList) {
+        return publishIfChanged(super.removeByIds(idList));
+    }
+
+    @Override
+    public boolean removeByMap(Map<String, Object> columnMap) {
+        return publishIfChanged(super.removeByMap(columnMap));
+    }
+
+    @Override
+    public boolean remove(Wrapper<ShopType> queryWrapper) {
+        return publishIfChanged(super.remove(queryWrapper));
+    }
+
+    private boolean publishIfChanged(boolean success) {
+        if (success) {
+            publishTypeChange();
+        }
+        return success;
+    }
+
+    // 删除Redis缓存并递增版本号，所有实例在下次检查时重新加载
+    private void publishTypeChange() {
+        stringRedisTemplate.delete(CACHE_SHOPTYPE_KEY);
+        stringRedisTemplate.opsForValue().increment(CACHE_SHOPTYPE_VERSION_KEY);
+    }
+
+    private String currentVersion() {
+        String version = stringRedisTemplate.opsForValue().get(CACHE_SHOPTYPE_VERSION_KEY);
+        return version == null ? "0" : version;
+    }
+
+    private ShopTypeSnapshot loadSnapshot(String version) {
+        // 1.先读Redis，不存在再查数据库并写入Redis
+        List<ShopType> shopTypeList;
         String shopType = stringRedisTemplate.opsForValue().get(CACHE_SHOPTYPE_KEY);
         if(StrUtil.isNotBlank(shopType)){
-            List<ShopType> shopTypes = JSONUtil.toList(shopType, ShopType.class);
-            return Result.ok(shopTypes);
+            shopTypeList = JSONUtil.toList(shopType, ShopType.class);
+        }else{
+            shopTypeList = query().orderByAsc("sort").list();
+            if(!shopTypeList.isEmpty()){
+                stringRedisTemplate.opsForValue().set(CACHE_SHOPTYPE_KEY, JSONUtil.toJsonStr(shopTypeList));
+            }
         }
-        List<ShopType> shopTypeList = query().orderByAsc("sort").list();
-        if(shopTypeList == null|| shopTypeList.isEmpty()){
-            return Result.fail("商店类型不存在");
+        // 2.提前编码好响应，按内容生成etag
+        Result result = shopTypeList.isEmpty() ? Result.fail("商店类型不存在") : Result.ok(shopTypeList);
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(result);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("商铺类型序列化失败", e);
         }
-        stringRedisTemplate.opsForValue().set(CACHE_SHOPTYPE_KEY, JSONUtil.toJsonStr(shopTypeList));
-        return Result.ok(shopTypeList);
+        String etag = "\"" + DigestUtils.md5DigestAsHex(body) + "\"";
+        return new ShopTypeSnapshot(version, Collections.unmodifiableList(shopTypeList), body, etag);
     }
 }
@@ -0,0 +1,223 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Sign;
+import com.hmdp.mapper.SignMapper;
+import com.hmdp.service.ISignService;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * <p>
+ *  服务实现类
+ * </p>
+ */
+@Slf4j
+@Service
+public class SignServiceImpl extends ServiceImpl<SignMapper, Sign> implements ISignService {
+
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+    // 每批归档的用户数量
+    private static final int ARCHIVE_BATCH_SIZE = 500;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Override
+    public Result sign() {
+        // 1.获取当前登录用户
+        Long userId = UserHolder.getUser().getId();
+        // 2.获取日期，拼接key sign:userId:yyyyMM
+        LocalDate now = LocalDate.now();
+        String key = signKey(userId, YearMonth.from(now));
+        // 3.写入Redis SETBIT key offset 1
+        stringRedisTemplate.opsForValue().setBit(key, now.getDayOfMonth() - 1, true);
+        return Result.ok();
+    }
+
+    @Override
+    public Result signCount() {
+        Long userId = UserHolder.getUser().getId();
+        LocalDate now = LocalDate.now();
+        YearMonth month = YearMonth.from(now);
+        // 1.本月截止今天的签到记录 BITFIELD key GET u{day} 0
+        long bits = monthBits(userId, month, now.getDayOfMonth());
+        int days = now.getDayOfMonth();
+        // 2.今天还没签到，从昨天开始计算，不打断连续签到
+        if ((bits & 1) == 0) {
+            bits >>>= 1;
+            days--;
+        }
+        // 3.从最后一天向前统计连续签到天数
+        int count = Long.numberOfTrailingZeros(~bits);
+        // 4.本月全部连续，继续统计之前的月份
+        int months = 0;
+        while (count >= days && months < SIGN_STREAK_MAX_MONTHS) {
+            month = month.minusMonths(1);
+            days = month.lengthOfMonth();
+            int streak = Long.numberOfTrailingZeros(~pastMonthBits(userId, month, days));
+            count += Math.min(streak, days);
+            months++;
+            if (streak < days) {
+                break;
+            }
+        }
+        return Result.ok(count);
+    }
+
+    @Override
+    public Result signOfMonth() {
+        Long userId = UserHolder.getUser().getId();
+        String key = signKey(userId, YearMonth.now());
+        // BITCOUNT key
+        Long count = stringRedisTemplate.execute(
+                (RedisCallback<Long>) connection -> connection.bitCount(key.getBytes(StandardCharsets.UTF_8)));
+        return Result.ok(count == null ? 0 : count);
+    }
+
+    // 每天凌晨把上个月的签到记录归档到数据库，每个用户每月一行
+    @Override
+    @Scheduled(cron = "0 30 3 * * ?")
+    public void archiveLastMonth() {
+        YearMonth month = YearMonth.now().minusMonths(1);
+        String suffix = month.format(MONTH_FORMATTER);
+        String archivedKey = SIGN_ARCHIVED_KEY + suffix;
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(archivedKey))) {
+            return;
+        }
+        // 多实例部署时只有一个实例执行
+        RLock lock = redissonClient.getLock("lock:sign:archive");
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            int total = stringRedisTemplate.execute((RedisCallback<Integer>) connection -> archive(connection, month));
+            stringRedisTemplate.opsForValue().set(archivedKey, String.valueOf(total), 62, TimeUnit.DAYS);
+            log.info("{}签到记录归档完成，用户数:{}，耗时:{}ms", suffix, total, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("签到记录归档失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int archive(RedisConnection connection, YearMonth month) {
+        String suffix = ":" + month.format(MONTH_FORMATTER);
+        ScanOptions options = ScanOptions.scanOptions().match(USER_SIGN_KEY + "*" + suffix).count(1000).build();
+        List<byte[]> keys = new ArrayList<>(ARCHIVE_BATCH_SIZE);
+        int total = 0;
+        // 1.SCAN遍历上个月的签到key，不阻塞Redis
+        try (Cursor<byte[]> cursor = connection.scan(options)) {
+            while (cursor.hasNext()) {
+                keys.add(cursor.next());
+                if (keys.size() >= ARCHIVE_BATCH_SIZE) {
+                    total += archiveBatch(connection, keys, month);
+                    keys.clear();
+                }
+            }
+        } catch (java.io.IOException e) {
+            throw new IllegalStateException(e);
+        }
+        if (!keys.isEmpty()) {
+            total += archiveBatch(connection, keys, month);
+        }
+        return total;
+    }
+
+    private int archiveBatch(RedisConnection connection, List<byte[]> keys, YearMonth month) {
+        // 2.MGET读取bitmap原始字节
+        List<byte[]> values = connection.mGet(keys.toArray(new byte[0][]));
+        List<Sign> signs = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] value = values == null ? null : values.get(i);
+            if (value == null) {
+                continue;
+            }
+            // sign:userId:yyyyMM
+            String key = new String(keys.get(i), StandardCharsets.UTF_8);
+            String userId = key.substring(USER_SIGN_KEY.length(), key.lastIndexOf(':'));
+            // 前4个字节即31天的签到记录
+            long bitmap = 0;
+            for (int b = 0; b < 4; b++) {
+                bitmap = (bitmap << 8) | (b < value.length ? value[b] & 0xFF : 0);
+            }
+            signs.add(new Sign()
+                    .setUserId(Long.valueOf(userId))
+                    .setYear(month.getYear())
+                    .setMonth(month.getMonthValue())
+                    .setDate(month.atDay(1))
+                    .setSignBits(bitmap));
+        }
+        if (signs.isEmpty()) {
+            return 0;
+        }
+        // 3.批量写入数据库
+        getBaseMapper().upsertBatch(signs);
+        // 4.保留一段时间供跨月统计连续签到，之后自动删除，更早的月份从数据库读取
+        long ttl = TimeUnit.DAYS.toSeconds(SIGN_KEEP_DAYS);
+        connection.openPipeline();
+        for (byte[] key : keys) {
+            connection.expire(key, ttl);
+        }
+        connection.closePipeline();
+        return signs.size();
+    }
+
+    // 读取某月前days天的签到记录，最后一天在最低位
+    private long monthBits(Long userId, YearMonth month, int days) {
+        List<Long> result = stringRedisTemplate.opsForValue().bitField(signKey(userId, month),
+                BitFieldSubCommands.create().get(BitFieldSubCommands.BitFieldType.unsigned(days)).valueAt(0));
+        if (result == null || result.isEmpty() || result.get(0) == null) {
+            return 0;
+        }
+        return result.get(0);
+    }
+
+    // 读取之前某月的签到记录，Redis中的key归档后会过期，过期的月份从数据库读取
+    private long pastMonthBits(Long userId, YearMonth month, int days) {
+        long bits = monthBits(userId, month, days);
+        if (bits != 0) {
+            return bits;
+        }
+        Sign sign = query()
+                .eq("user_id", userId)
+                .eq("year", month.getYear())
+                .eq("month", month.getMonthValue())
+                .one();
+        if (sign == null || sign.getSignBits() == null) {
+            return 0;
+        }
+        // sign_bits最高位为1号，取前days位，与monthBits的位序一致
+        return (sign.getSignBits() & 0xFFFFFFFFL) >>> (32 - days);
+    }
+
+    private static String signKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(MONTH_FORMATTER);
+    }
+}
@@ -1,9 +1,12 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
@@ -13,17 +16,23 @@ import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SessionCache;
+import com.hmdp.utils.SignedTokenService;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -42,6 +51,24 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SessionCache sessionCache;
+
+    @Resource
+    private SignedTokenService signedTokenService;
+
+    private static final String TOKEN_MODE_SIGNED = "signed";
+
+    private static final char USER_CACHE_SEPARATOR = '\u001F';
+
+    // 用户信息本地缓存，id -> UserDTO
+    private final LRUCache<Long, UserDTO> userCache =
+            CacheUtil.newLRUCache(CACHE_USER_LOCAL_SIZE, TimeUnit.SECONDS.toMillis(CACHE_USER_LOCAL_TTL));
+
+    // 登录令牌模式：redis 或 signed
+    @Value("${hmdp.token.mode:redis}")
+    private String tokenMode;
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         // 1.校验手机号
@@ -77,18 +104,21 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         if(user == null){
             user = createUserWithPhone(loginForm.getPhone());
         }
-        // 6.用户存在，直接登录，保存信息到redis
-        // 6.1 随机生成token，做成登录令牌
+        UserDTO userDto = UserDTO.of(user);
+        // 6.签名令牌模式，直接签发无状态令牌
+        if(TOKEN_MODE_SIGNED.equals(tokenMode)){
+            return Result.ok(signedTokenService.issue(userDto, TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL)));
+        }
+        // 7.用户存在，直接登录，保存信息到redis
+        // 7.1 随机生成token，做成登录令牌
         String token = UUID.randomUUID().toString(true);
-        // 6.2 将user对象转化为hash存储
-        UserDTO userDto = BeanUtil.copyProperties(user, UserDTO.class);
-        // 6.3 存储
+        // 7.2 将user对象转化为hash存储
         Map<String, Object> userMap = BeanUtil.beanToMap(userDto,new HashMap<>(),
                 CopyOptions.create().setIgnoreNullValue(true).setFieldValueEditor((fieldName,fieldValue)->fieldValue.toString()));
         String tokenKey = LOGIN_USER_KEY+token;
         stringRedisTemplate.opsForHash().putAll(tokenKey,userMap);
         stringRedisTemplate.expire(tokenKey,LOGIN_USER_TTL,TimeUnit.MINUTES);
-        // 7. 返回token
+        // 8. 返回token
         return Result.ok(token);
     }
 
@@ -100,12 +130,125 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         User user = query().eq("id", id).one();
         String key = LOGIN_CODE_KEY+user.getPhone();
         stringRedisTemplate.delete(key);
-        // 2.删除user的redis
-        stringRedisTemplate.delete(LOGIN_USER_KEY+token);
+        // 2.签名令牌加入吊销列表，UUID令牌删除user的redis和本地缓存
+        if(SignedTokenService.isSigned(token)){
+            signedTokenService.revoke(token);
+        }else{
+            stringRedisTemplate.delete(LOGIN_USER_KEY+token);
+            sessionCache.invalidate(token);
+        }
         log.info("用户："+user.getNickName()+"已退出");
         return Result.ok();
     }
 
+    @Override
+    public UserDTO queryUserDTO(Long id) {
+        List<UserDTO> users = queryUserDTOs(Collections.singletonList(id));
+        return users.isEmpty() ? null : users.get(0);
+    }
+
+    @Override
+    public List<UserDTO> queryUserDTOs(List<Long> ids) {
+        Map<Long, UserDTO> found = new HashMap<>(ids.size());
+        // 1.查询本地缓存
+        List<Long> missIds = new ArrayList<>();
+        for (Long id : ids) {
+            UserDTO user = userCache.get(id, false);
+            if (user != null) {
+                found.put(id, user);
+            } else if (!found.containsKey(id)) {
+                missIds.add(id);
+            }
+        }
+        // 2.本地未命中的，一次MGET查询Redis
+        if (!missIds.isEmpty()) {
+            List<String> keys = missIds.stream().map(id -> CACHE_USER_KEY + id).collect(Collectors.toList());
+            List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+            List<Long> dbIds = new ArrayList<>();
+            for (int i = 0; i < missIds.size(); i++) {
+                Long id = missIds.get(i);
+                String value = values == null ? null : values.get(i);
+                if (value == null) {
+                    dbIds.add(id);
+                } else if (!value.isEmpty()) {
+                    // 空字符串表示用户不存在
+                    UserDTO user = decodeUser(id, value);
+                    userCache.put(id, user);
+                    found.put(id, user);
+                }
+            }
+            // 3.Redis未命中的，批量查询数据库并回写缓存
+            if (!dbIds.isEmpty()) {
+                Map<String, String> cacheValues = new HashMap<>(dbIds.size());
+                for (User entity : listByIds(dbIds)) {
+                    UserDTO user = UserDTO.of(entity);
+                    userCache.put(user.getId(), user);
+                    found.put(user.getId(), user);
+                    cacheValues.put(CACHE_USER_KEY + user.getId(), encodeUser(user));
+                }
+                writeUserCache(dbIds, cacheValues);
+            }
+        }
+        // 4.按ids顺序返回
+        List<UserDTO> users = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            UserDTO user = found.get(id);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public boolean updateById(User entity) {
+        boolean success = super.updateById(entity);
+        // 用户信息变化，删除缓存
+        if (success) {
+            evictUserCache(entity.getId());
+        }
+        return success;
+    }
+
+    private void evictUserCache(Long id) {
+        stringRedisTemplate.delete(CACHE_USER_KEY + id);
+        userCache.remove(id);
+    }
+
+    // 用pipeline批量写入，不存在的用户写入空值防止缓存穿透
+    private void writeUserCache(List<Long> ids, Map<String, String> cacheValues) {
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                for (Long id : ids) {
+                    String key = CACHE_USER_KEY + id;
+                    String value = cacheValues.get(key);
+                    if (value == null) {
+                        operations.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                    } else {
+                        operations.opsForValue().set(key, value, CACHE_USER_TTL, TimeUnit.MINUTES);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    // 缓存格式：昵称 + 分隔符 + 头像
+    private static String encodeUser(UserDTO user) {
+        return StrUtil.nullToEmpty(user.getNickName()) + USER_CACHE_SEPARATOR + StrUtil.nullToEmpty(user.getIcon());
+    }
+
+    private static UserDTO decodeUser(Long id, String value) {
+        int idx = value.indexOf(USER_CACHE_SEPARATOR);
+        UserDTO user = new UserDTO();
+        user.setId(id);
+        user.setNickName(idx < 0 ? value : value.substring(0, idx));
+        user.setIcon(idx < 0 ? "" : value.substring(idx + 1));
+        return user;
+    }
+
     private User createUserWithPhone(String phone){
         User user = new User();
         user.setPhone(phone);
@@ -1,15 +1,25 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
 import cn.hutool.json.JSON;
 import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.conditions.update.UpdateChainWrapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.AsyncUtils;
+import com.hmdp.utils.OrderJournal;
+import com.hmdp.utils.OrderMessageCodec;
+import com.hmdp.utils.OrderPublisher;
+import com.hmdp.utils.OrderRetryHandler;
 import com.hmdp.utils.RedisIdWorker;
 import com.hmdp.utils.SimpleRedisLock;
 import com.hmdp.utils.UserHolder;
@@ -22,18 +32,26 @@ import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.concurrent.*;
 
+import static com.hmdp.utils.SystemConstants.PROCESSED_ORDER_CACHE_SIZE;
+import static com.hmdp.utils.SystemConstants.VOUCHER_SHOP_CACHE_SIZE;
+
 /**
  * <p>
  *  服务实现类
@@ -48,6 +66,10 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     @Resource
     private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private IVoucherService voucherService;
+    @Resource
+    private IShopService shopService;
     @Autowired
     private RedisIdWorker redisIdWorker;
     @Resource
@@ -56,6 +78,27 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private RedissonClient redissonClient;
     @Resource
     private RabbitTemplate rabbitTemplate;
+    @Resource
+    private ReactiveStringRedisTemplate reactiveStringRedisTemplate;
+    @Resource
+    private OrderJournal orderJournal;
+    @Resource
+    private OrderPublisher orderPublisher;
+    @Resource
+    private TransactionTemplate transactionTemplate;
+    @Resource
+    private OrderRetryHandler orderRetryHandler;
+    // 最近落库的订单id，重复消息不用访问数据库
+    private final Cache<Long, Boolean> processedOrders = CacheUtil.newLRUCache(PROCESSED_ORDER_CACHE_SIZE);
+    // 优惠券id -> 商铺id
+    private final Cache<Long, Long> voucherShops = CacheUtil.newLRUCache(VOUCHER_SHOP_CACHE_SIZE);
+    // 订单消息格式，json或binary，默认json，所有消费者都能解码binary后再切换
+    @Value("${hmdp.order.message-format:json}")
+    private String messageFormat;
+    @Resource(name = "ioExecutor")
+    private ExecutorService ioExecutor;
+    @Resource(name = "seckillExecutor")
+    private ExecutorService seckillExecutor;
 
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
     static {
@@ -70,6 +113,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @PostConstruct
     private void init(){
         SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        orderJournal.startForwarder(this::forwardOrder);
     }
 
     private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
@@ -100,13 +144,27 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 Collections.emptyList(),
                 voucherId.toString(), userId.toString()
         );
+        return sendOrder(result.intValue(), voucherId, userId);
+    }
+
+    // 异步版本，lua脚本通过Lettuce非阻塞执行，生成订单和写入订单日志在seckillExecutor中执行
+    @Override
+    public CompletableFuture<Result> seckillVoucherAsync(Long voucherId) {
+        Long userId = UserHolder.getUser().getId();
+        return reactiveStringRedisTemplate.execute(
+                SECKILL_SCRIPT,
+                Collections.emptyList(),
+                Arrays.asList(voucherId.toString(), userId.toString())
+        ).next().toFuture().thenApplyAsync(result -> sendOrder(result.intValue(), voucherId, userId), seckillExecutor);
+    }
+
+    private Result sendOrder(int r, Long voucherId, Long userId) {
         // 2. 判断结果是否为0
-        int r = result.intValue();
         if (r != 0) {
             // 2.1 不为0，代表没有购买资格
             return Result.fail(r==1?"库存不足":"不能重复下单");
         }
-        // 2.2 为0，有购买资格，把下单信息保存到RabbitMQ队列
+        // 2.2 为0，有购买资格，先写入本地订单日志，由后台线程转发到RabbitMQ队列
         long orderId = redisIdWorker.nextId("order");
 
         VoucherOrder voucherOrder = new VoucherOrder();
@@ -114,32 +172,102 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         voucherOrder.setUserId(userId);
         voucherOrder.setVoucherId(voucherId);
 
-        String jsonStr = JSONUtil.toJsonStr(voucherOrder);
-        rabbitTemplate.convertAndSend("X","XA",jsonStr);
+        orderJournal.append(voucherOrder);
         return Result.ok(orderId);
     }
 
+    // 转发订单日志中的订单，MQ确认后完成；重试用尽时在ioExecutor中直接写入数据库，数据库失败或线程池已满时由日志稍后重试
+    private CompletableFuture<Void> forwardOrder(VoucherOrder voucherOrder) {
+        Message message = OrderMessageCodec.encode(voucherOrder, messageFormat);
+        return orderPublisher.publish("X", "XA", message, voucherOrder.getId().toString())
+                .handle((v, e) -> e)
+                .thenCompose(e -> {
+                    if (e == null) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    log.warn("订单发送到MQ失败，直接写入数据库，orderId:{}", voucherOrder.getId(), e);
+                    return AsyncUtils.<Void>supplyAsync(() -> {
+                        persistOrder(voucherOrder);
+                        return null;
+                    }, ioExecutor);
+                });
+    }
+
     // 消费者代码
     @RabbitListener(queues = "QA")
     public void receiveA(Message message, Channel channel) {
-        String msg = new String(message.getBody());
-        log.info("正常队列:{}", msg);
-        VoucherOrder voucherOrder = JSONUtil.toBean(msg, VoucherOrder.class);
-        save(voucherOrder);
-        boolean success = seckillVoucherService.update()
-                .setSql("stock= stock -1")
-                .eq("voucher_id", voucherOrder.getVoucherId()).gt("stock", 0).update();
+        consumeOrder(message, "正常队列");
     }
 
+    // QA中超时未被消费的消息
     @RabbitListener(queues = "QD")
     public void recieveD(Message message) {
-        String msg = new String(message.getBody());
-        log.info("死信队列:{}",msg);
-        VoucherOrder voucherOrder = JSONUtil.toBean(msg, VoucherOrder.class);
-        save(voucherOrder);
-        boolean success = seckillVoucherService.update()
-                .setSql("stock= stock -1")
-                .eq("voucher_id", voucherOrder.getVoucherId()).gt("stock", 0).update();
+        consumeOrder(message, "死信队列");
+    }
+
+    // 消费订单消息，失败时交给重试管道，消息本身总是被确认
+    private void consumeOrder(Message message, String source) {
+        // 1.解析消息，无法解析的直接进入停车场
+        VoucherOrder voucherOrder;
+        try {
+            voucherOrder = OrderMessageCodec.decode(message);
+            if (voucherOrder.getId() == null) {
+                throw new IllegalArgumentException("订单消息缺少订单id");
+            }
+        } catch (RuntimeException e) {
+            orderRetryHandler.park(message, e);
+            return;
+        }
+        log.info("{}:{}", source, voucherOrder.getId());
+        // 2.落库失败，按失败次数延迟重试
+        try {
+            persistOrder(voucherOrder);
+        } catch (RuntimeException e) {
+            orderRetryHandler.retry(message, e);
+        }
+    }
+
+    // 保存订单并扣减数据库库存，按订单id幂等，重复投递的消息只会生效一次
+    private void persistOrder(VoucherOrder voucherOrder) {
+        Long orderId = voucherOrder.getId();
+        // 1.本地最近处理过的订单直接跳过
+        if (processedOrders.containsKey(orderId)) {
+            log.debug("订单已处理，orderId:{}", orderId);
+            return;
+        }
+        // 2.依赖主键去重，订单插入成功后才扣减库存，两步在同一个事务中
+        try {
+            transactionTemplate.execute(status -> {
+                save(voucherOrder);
+                seckillVoucherService.update()
+                        .setSql("stock= stock -1")
+                        .eq("voucher_id", voucherOrder.getVoucherId()).gt("stock", 0).update();
+                return null;
+            });
+        } catch (DuplicateKeyException e) {
+            // 3.只有主键冲突才是重复的订单，其他异常交给调用方重试
+            processedOrders.put(orderId, Boolean.TRUE);
+            log.info("重复的订单，orderId:{}", orderId);
+            return;
+        }
+        processedOrders.put(orderId, Boolean.TRUE);
+        increaseShopSold(voucherOrder.getVoucherId());
+    }
+
+    // 订单落库后增加商铺销量并更新排行榜，失败不影响订单
+    private void increaseShopSold(Long voucherId) {
+        try {
+            // 优惠券所属商铺不会变化，缓存在本地，不用每单查询一次
+            Long shopId = voucherShops.get(voucherId, false, () -> {
+                Voucher voucher = voucherService.getById(voucherId);
+                return voucher == null ? null : voucher.getShopId();
+            });
+            if (shopId != null) {
+                shopService.increaseSold(shopId, 1);
+            }
+        } catch (Exception e) {
+            log.error("更新商铺销量失败，voucherId:{}", voucherId, e);
+        }
     }
 
     private void handleVoucherOrder(VoucherOrder voucherOrder) {
@@ -252,7 +380,8 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Override
     @Transactional
     public void createVoucherOrder(VoucherOrder voucherOrder) {
-        Long userId = UserHolder.getUser().getId();
+        // 在订单处理线程中执行，没有登录用户，用户id取订单中携带的
+        Long userId = voucherOrder.getUserId();
         // 6. 一人一单
         // 6.1 查询订单
         int count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
@@ -270,5 +399,6 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             return;
         }
         save(voucherOrder);
+        increaseShopSold(voucherOrder.getVoucherId());
     }
 }
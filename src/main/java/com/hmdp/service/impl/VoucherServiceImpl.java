@@ -1,5 +1,7 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
@@ -10,11 +12,16 @@ import com.hmdp.service.IVoucherService;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -36,15 +43,92 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        List<Voucher> vouchers = queryVoucherListOfShop(shopId);
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    @Override
+    public List<Voucher> queryVoucherListOfShop(Long shopId) {
+        // 1.查询优惠券信息，优先读缓存
+        List<Voucher> vouchers = queryVoucherListWithCache(shopId);
+        // 2.找出秒杀券，一次MGET查询实时库存
+        List<Voucher> seckillVouchers = vouchers.stream()
+                .filter(v -> v.getStock() != null)
+                .collect(Collectors.toList());
+        if (seckillVouchers.isEmpty()) {
+            return vouchers;
+        }
+        List<String> keys = seckillVouchers.stream()
+                .map(v -> SECKILL_STOCK_KEY + v.getId())
+                .collect(Collectors.toList());
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(keys);
+        if (stocks == null) {
+            return vouchers;
+        }
+        // 3.用实时库存覆盖数据库中的库存
+        for (int i = 0; i < seckillVouchers.size(); i++) {
+            String stock = stocks.get(i);
+            if (stock != null) {
+                seckillVouchers.get(i).setStock(Integer.valueOf(stock));
+            }
+        }
+        return vouchers;
+    }
+
+    private List<Voucher> queryVoucherListWithCache(Long shopId) {
+        String key = CACHE_VOUCHER_KEY + shopId;
+        // 1.从redis查询优惠券列表
+        String json = stringRedisTemplate.opsForValue().get(key);
+        // 2.存在，直接返回，其中的库存在返回前会被实时库存覆盖
+        if (StrUtil.isNotBlank(json)) {
+            return JSONUtil.toList(json, Voucher.class);
+        }
+        // 3.空字符串表示没有优惠券
+        if (json != null) {
+            return new ArrayList<>();
+        }
+        // 4.不存在，查询数据库并写入redis
+        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        if (vouchers.isEmpty()) {
+            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+        } else {
+            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(vouchers), CACHE_VOUCHER_TTL, TimeUnit.MINUTES);
+        }
+        return vouchers;
+    }
+
+    @Override
+    public boolean save(Voucher voucher) {
+        boolean success = super.save(voucher);
+        if (success) {
+            evictVoucherCache(voucher.getShopId());
+        }
+        return success;
+    }
+
+    // 删除商铺的优惠券缓存，在事务中时等提交后再删，避免并发查询把提交前的数据写回缓存
+    private void evictVoucherCache(Long shopId) {
+        if (shopId == null) {
+            return;
+        }
+        String key = CACHE_VOUCHER_KEY + shopId;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    stringRedisTemplate.delete(key);
+                }
+            });
+        } else {
+            stringRedisTemplate.delete(key);
+        }
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
-        // 保存优惠券
+        // 保存优惠券，提交后删除商铺的优惠券缓存
         save(voucher);
         // 保存秒杀信息
         SeckillVoucher seckillVoucher = new SeckillVoucher();
@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+// 管理接口拦截器，/admin/**只接受携带正确管理令牌的请求，与用户登录无关
+@Slf4j
+public class AdminInterceptor implements HandlerInterceptor {
+
+    public static final String ADMIN_TOKEN_HEADER = "X-Admin-Token";
+
+    private final byte[] adminToken;
+
+    // 未配置管理令牌时拒绝所有管理请求
+    public AdminInterceptor(String adminToken) {
+        this.adminToken = StrUtil.isBlank(adminToken) ? null : adminToken.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        String token = request.getHeader(ADMIN_TOKEN_HEADER);
+        if (adminToken == null || token == null
+                || !MessageDigest.isEqual(adminToken, token.getBytes(StandardCharsets.UTF_8))) {
+            response.setStatus(403);
+            log.warn("管理接口拒绝访问:{} {}", request.getRequestURI(), request.getRemoteAddr());
+            return false;
+        }
+        return true;
+    }
+}
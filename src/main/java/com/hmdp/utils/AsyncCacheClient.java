@@ -0,0 +1,112 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+
+@Slf4j
+@Component
+// CacheClient的异步版本，Redis操作走Lettuce的非阻塞API，只有数据库查询占用ioExecutor线程
+public class AsyncCacheClient {
+
+    private final ReactiveStringRedisTemplate reactiveRedisTemplate;
+
+    @Resource(name = "ioExecutor")
+    private ExecutorService ioExecutor;
+
+    public AsyncCacheClient(ReactiveStringRedisTemplate reactiveRedisTemplate) {
+        this.reactiveRedisTemplate = reactiveRedisTemplate;
+    }
+
+    public CompletableFuture<Boolean> set(String key, Object value, Long time, TimeUnit unit) {
+        return reactiveRedisTemplate.opsForValue()
+                .set(key, JSONUtil.toJsonStr(value), Duration.ofMillis(unit.toMillis(time))).toFuture();
+    }
+
+    public CompletableFuture<Boolean> setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
+        // 设置RedisData对象
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        // 写入Redis
+        return reactiveRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData)).toFuture();
+    }
+
+    public <R, ID> CompletableFuture<R> queryWithPathThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 1.从redis查询缓存，key不存在时Mono为空，用null表示
+        return get(key).thenCompose(json -> {
+            // 2.存在，直接返回
+            if (StrUtil.isNotBlank(json)) {
+                return CompletableFuture.completedFuture(JSONUtil.toBean(json, type));
+            }
+            // 空值，缓存穿透保护
+            if (json != null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            // 3.不存在，在ioExecutor中查询数据库
+            return AsyncUtils.supplyAsync(() -> dbFallback.apply(id), ioExecutor).thenCompose(r -> {
+                // 4.数据库不存在，写入空值
+                if (r == null) {
+                    return reactiveRedisTemplate.opsForValue()
+                            .set(key, "", Duration.ofMillis(unit.toMillis(time))).toFuture().thenApply(ok -> null);
+                }
+                // 5.数据库存在，写入redis
+                return set(key, r, time, unit).thenApply(ok -> r);
+            });
+        });
+    }
+
+    public <R, ID> CompletableFuture<R> queryWithLogicExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 1.从redis查询缓存
+        return get(key).thenCompose(json -> {
+            // 2.不存在，查询数据库并写入redis
+            if (StrUtil.isBlank(json)) {
+                return AsyncUtils.supplyAsync(() -> dbFallback.apply(id), ioExecutor)
+                        .thenCompose(r -> setWithLogicalExpire(key, r == null ? "" : r, time, unit).thenApply(ok -> r));
+            }
+            RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+            Object data = redisData.getData();
+            R r = data instanceof JSONObject ? JSONUtil.toBean((JSONObject) data, type) : null;
+            // 3.未过期，直接返回
+            if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+                return CompletableFuture.completedFuture(r);
+            }
+            // 4.已过期，获取互斥锁后在后台重建，本次返回旧数据
+            String lockKey = LOCK_SHOP_KEY + id;
+            reactiveRedisTemplate.opsForValue().setIfAbsent(lockKey, "1", Duration.ofSeconds(10)).toFuture()
+                    .thenAccept(isLock -> {
+                        if (!Boolean.TRUE.equals(isLock)) {
+                            return;
+                        }
+                        AsyncUtils.supplyAsync(() -> dbFallback.apply(id), ioExecutor)
+                                .thenCompose(r1 -> setWithLogicalExpire(key, r1, time, unit))
+                                .whenComplete((ok, e) -> {
+                                    if (e != null) {
+                                        log.error("缓存重建失败", e);
+                                    }
+                                    reactiveRedisTemplate.delete(lockKey).subscribe();
+                                });
+                    });
+            return CompletableFuture.completedFuture(r);
+        });
+    }
+
+    private CompletableFuture<String> get(String key) {
+        return reactiveRedisTemplate.opsForValue().get(key).toFuture();
+    }
+}
@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+public class AsyncUtils {
+
+    /**
+     * 在线程池中执行任务，线程池拒绝时返回失败的future，而不是在提交线程抛出异常
+     * 在Lettuce等回调线程中提交任务时使用：CompletableFuture.thenApplyAsync等方法遇到拒绝时，依赖的future永远不会完成，
+     * 所以这类任务要写成thenCompose(r -> AsyncUtils.supplyAsync(...))
+     * @param task 任务
+     * @param executor 线程池，满了要拒绝，不能在调用线程执行
+     * @return 任务结果，被拒绝时以RejectedExecutionException失败
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Supplier<T> task, Executor executor) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.hmdp.utils;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 批量加载器，load只登记需要的key和回调，dispatch时合并成一次批量查询，结果在加载器内缓存
+ * 非线程安全，一个请求内使用
+ */
+public class BatchLoader<K, V> {
+
+    private final Function<List<K>, Map<K, V>> batchFn;
+    // 已加载的结果，不存在的key也记录下来，避免重复查询
+    private final Map<K, V> loaded = new HashMap<>();
+    private final Map<K, List<Consumer<V>>> pending = new LinkedHashMap<>();
+
+    public BatchLoader(Function<List<K>, Map<K, V>> batchFn) {
+        this.batchFn = batchFn;
+    }
+
+    // 登记一个key，dispatch后回调，已加载过的直接回调，不存在时回调null
+    public void load(K key, Consumer<V> callback) {
+        if (loaded.containsKey(key)) {
+            callback.accept(loaded.get(key));
+            return;
+        }
+        pending.computeIfAbsent(key, k -> new ArrayList<>(1)).add(callback);
+    }
+
+    // 批量加载所有登记的key，回调中再登记的key在下一轮加载
+    public void dispatch() {
+        while (!pending.isEmpty()) {
+            Map<K, List<Consumer<V>>> batch = new LinkedHashMap<>(pending);
+            pending.clear();
+            Map<K, V> values = batchFn.apply(new ArrayList<>(batch.keySet()));
+            for (Map.Entry<K, List<Consumer<V>>> entry : batch.entrySet()) {
+                V value = values.get(entry.getKey());
+                loaded.put(entry.getKey(), value);
+                for (Consumer<V> callback : entry.getValue()) {
+                    callback.accept(value);
+                }
+            }
+        }
+    }
+
+    // 批量加载并按keys的顺序返回，不存在的跳过
+    public List<V> loadMany(List<K> keys) {
+        for (K key : keys) {
+            if (!loaded.containsKey(key)) {
+                pending.computeIfAbsent(key, k -> new ArrayList<>(1));
+            }
+        }
+        dispatch();
+        List<V> result = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            V value = loaded.get(key);
+            if (value != null) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+}
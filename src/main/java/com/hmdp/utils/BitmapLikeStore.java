@@ -0,0 +1,75 @@
+package com.hmdp.utils;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+// 用bitmap保存点赞关系，用户id作为bit偏移量，每个点赞只占1bit
+// 另外用一个有界ZSET保留最早点赞的用户，供点赞列表展示，顺序与ZSetLikeStore一致
+@Component
+@ConditionalOnProperty(name = "hmdp.like.store", havingValue = "bitmap")
+public class BitmapLikeStore implements ILikeStore {
+
+    // SETBIT 偏移量上限 2^32-1
+    private static final long MAX_OFFSET = (1L << 32) - 1;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public BitmapLikeStore(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @Override
+    public boolean isLiked(Long blogId, Long userId) {
+        Boolean bit = stringRedisTemplate.opsForValue().getBit(BLOG_LIKED_BITMAP_KEY + blogId, offset(userId));
+        return Boolean.TRUE.equals(bit);
+    }
+
+    @Override
+    public boolean like(Long blogId, Long userId) {
+        // 1.SETBIT 返回原来的值，原子地判断并设置
+        Boolean old = stringRedisTemplate.opsForValue().setBit(BLOG_LIKED_BITMAP_KEY + blogId, offset(userId), true);
+        if (Boolean.TRUE.equals(old)) {
+            return false;
+        }
+        // 2.记录到点赞列表，裁剪掉超出固定长度的最晚点赞，取消点赞空出的位置由之后的点赞补上
+        String recentKey = BLOG_LIKED_RECENT_KEY + blogId;
+        ZSetLikeStore.zAddNx(stringRedisTemplate, recentKey, userId.toString(), System.currentTimeMillis());
+        stringRedisTemplate.opsForZSet().removeRange(recentKey, BLOG_LIKED_RECENT_SIZE, -1);
+        return true;
+    }
+
+    @Override
+    public boolean unlike(Long blogId, Long userId) {
+        Boolean old = stringRedisTemplate.opsForValue().setBit(BLOG_LIKED_BITMAP_KEY + blogId, offset(userId), false);
+        if (!Boolean.TRUE.equals(old)) {
+            return false;
+        }
+        stringRedisTemplate.opsForZSet().remove(BLOG_LIKED_RECENT_KEY + blogId, userId.toString());
+        return true;
+    }
+
+    @Override
+    public List<Long> topLikers(Long blogId, int count) {
+        // zrange key 0 count-1，最早点赞的用户在前
+        Set<String> top = stringRedisTemplate.opsForZSet().range(BLOG_LIKED_RECENT_KEY + blogId, 0, count - 1);
+        if (top == null || top.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return top.stream().map(Long::valueOf).collect(Collectors.toList());
+    }
+
+    private long offset(Long userId) {
+        if (userId == null || userId < 0 || userId > MAX_OFFSET) {
+            throw new IllegalArgumentException("用户id超出bitmap范围: " + userId);
+        }
+        return userId;
+    }
+}
@@ -0,0 +1,98 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
+import com.hmdp.dto.CursorResult;
+import com.hmdp.dto.Result;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 基于游标的分页，游标记录上一页最后一条的排序值和id，下一页用范围条件走索引，不做OFFSET和COUNT
+ * 排序列为null时只按id排序
+ * 排序列必须是NOT NULL的数值列：NULL不满足范围条件，游标也无法表示，遇到NULL时抛出IllegalStateException
+ */
+public class CursorPager {
+
+    private static final String SEPARATOR = ":";
+
+    public static <T> Result query(QueryChainWrapper<T> query, String sortColumn, Function<T, ? extends Number> sortGetter,
+                                   Function<T, Long> idGetter, boolean desc, String cursor, int size) {
+        return query(query, sortColumn, sortGetter, idGetter, desc, cursor, size, records -> {});
+    }
+
+    // decorator用于在返回前补充当前页数据，例如查询笔记的用户
+    public static <T> Result query(QueryChainWrapper<T> query, String sortColumn, Function<T, ? extends Number> sortGetter,
+                                   Function<T, Long> idGetter, boolean desc, String cursor, int size,
+                                   Consumer<List<T>> decorator) {
+        if (size <= 0) {
+            return Result.fail("分页大小必须大于0");
+        }
+        // 1.解析游标
+        long[] last = null;
+        if (StrUtil.isNotBlank(cursor)) {
+            last = decode(cursor);
+            if (last == null) {
+                return Result.fail("无效的分页游标");
+            }
+        }
+        // 2.从上一页最后一条之后开始查，例如降序时 sort < v OR (sort = v AND id < id)
+        if (last != null) {
+            long value = last[0];
+            long id = last[1];
+            if (sortColumn == null) {
+                query.gt(!desc, "id", id).lt(desc, "id", id);
+            } else if (desc) {
+                query.and(w -> w.lt(sortColumn, value).or(o -> o.eq(sortColumn, value).lt("id", id)));
+            } else {
+                query.and(w -> w.gt(sortColumn, value).or(o -> o.eq(sortColumn, value).gt("id", id)));
+            }
+        }
+        // 3.排序，多查一条用来判断是否还有下一页
+        if (sortColumn != null) {
+            query.orderBy(true, !desc, sortColumn);
+        }
+        query.orderBy(true, !desc, "id");
+        List<T> records = query.last("LIMIT " + (size + 1)).list();
+        // 4.封装结果
+        CursorResult r = new CursorResult();
+        if (records.size() > size) {
+            records = records.subList(0, size);
+            T tail = records.get(size - 1);
+            long value = 0;
+            if (sortColumn != null) {
+                Number sortValue = sortGetter.apply(tail);
+                if (sortValue == null) {
+                    throw new IllegalStateException("游标分页的排序列" + sortColumn + "不能为null");
+                }
+                value = sortValue.longValue();
+            }
+            r.setCursor(encode(value, idGetter.apply(tail)));
+        }
+        decorator.accept(records);
+        r.setList(records);
+        return Result.ok(r);
+    }
+
+    private static String encode(long value, long id) {
+        String raw = value + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long[] decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int i = raw.indexOf(SEPARATOR);
+            if (i < 0) {
+                return null;
+            }
+            return new long[]{Long.parseLong(raw.substring(0, i)), Long.parseLong(raw.substring(i + 1))};
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
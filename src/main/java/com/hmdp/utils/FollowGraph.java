@@ -0,0 +1,506 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+// 进程内关注关系图，邻接表用有序long数组保存，写时复制
+// 支持共同关注、粉丝数和二度人脉推荐
+// 以tb_follow为快照，再重放stream.follows中还未持久化的变更，加载失败时退避重试
+// 本实例的关注变更实时生效，其他实例的变更在下次全量重建后可见，最多滞后RELOAD_INTERVAL
+@Slf4j
+@Component
+public class FollowGraph {
+
+    private static final long[] EMPTY = new long[0];
+    // 单个fork-join任务处理的关注人数量
+    private static final int FORK_THRESHOLD = 64;
+    // 全量重建间隔，毫秒
+    private static final long RELOAD_INTERVAL = 5 * 60 * 1000L;
+    // 首次加载失败后的重试间隔，毫秒，每次翻倍
+    private static final long LOAD_RETRY_MIN_MILLIS = 1000L;
+    private static final long LOAD_RETRY_MAX_MILLIS = 60 * 1000L;
+    // 读取数据库期间每读多少行追读一次变更日志，避免变更在读到之前被持久化并删除
+    private static final int TAIL_ROWS = 10000;
+    private static final int TAIL_BATCH_SIZE = 1000;
+
+    private static final DefaultRedisScript<List> SNAPSHOT_SCRIPT;
+    static {
+        SNAPSHOT_SCRIPT = new DefaultRedisScript<>();
+        SNAPSHOT_SCRIPT.setLocation(new ClassPathResource("follow_snapshot.lua"));
+        SNAPSHOT_SCRIPT.setResultType(List.class);
+    }
+
+    private static final ExecutorService GRAPH_LOAD_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final ForkJoinPool GRAPH_POOL = new ForkJoinPool();
+
+    private final FollowMapper followMapper;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    // 用户 -> 他关注的人，重建完成后整体替换
+    private volatile Map<Long, long[]> following = new ConcurrentHashMap<>();
+    // 用户 -> 关注他的人
+    private volatile Map<Long, long[]> followers = new ConcurrentHashMap<>();
+
+    private volatile boolean ready = false;
+    // 正在加载或重建，期间的变更同时记录下来
+    private volatile boolean loading = true;
+    // 加载期间本实例的增量变更，边 -> 是否关注，重建完成后应用到新图上，避免取关被快照恢复
+    private final Map<String, Boolean> loadingChanges = new HashMap<>();
+    private final Object loadLock = new Object();
+
+    public FollowGraph(FollowMapper followMapper, StringRedisTemplate stringRedisTemplate) {
+        this.followMapper = followMapper;
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @PostConstruct
+    private void init() {
+        GRAPH_LOAD_EXECUTOR.submit(this::loadWithRetry);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // 首次加载，失败时退避重试直到成功
+    private void loadWithRetry() {
+        long backoff = LOAD_RETRY_MIN_MILLIS;
+        while (!load()) {
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            backoff = Math.min(backoff * 2, LOAD_RETRY_MAX_MILLIS);
+        }
+    }
+
+    // 定时全量重建，让其他实例的关注变更可见；失败时保留旧图，下次再试
+    @Scheduled(initialDelay = RELOAD_INTERVAL, fixedDelay = RELOAD_INTERVAL)
+    public void reload() {
+        if (!ready || loading) {
+            return;
+        }
+        GRAPH_LOAD_EXECUTOR.submit(this::load);
+    }
+
+    // 流式读取tb_follow构建新图，成功后替换旧图
+    private boolean load() {
+        long begin = System.currentTimeMillis();
+        synchronized (loadLock) {
+            // 在此之前的变更都已写入stream或数据库，会包含在这次的快照中
+            loading = true;
+        }
+        Map<Long, LongBuffer> out = new HashMap<>();
+        Map<Long, LongBuffer> in = new HashMap<>();
+        ChangeLog changes = new ChangeLog();
+        try {
+            // 1.读取变更日志和持久化计数，再读取数据库，期间不断追读新的变更
+            long persistedBefore = changes.snapshot();
+            int[] rows = {0};
+            followMapper.streamAll(context -> {
+                Follow follow = context.getResultObject();
+                out.computeIfAbsent(follow.getUserId(), k -> new LongBuffer()).add(follow.getFollowUserId());
+                in.computeIfAbsent(follow.getFollowUserId(), k -> new LongBuffer()).add(follow.getUserId());
+                if (++rows[0] % TAIL_ROWS == 0) {
+                    changes.tail();
+                }
+            });
+            long persistedAfter = changes.snapshot();
+            // 2.期间被持久化并删除的变更都读到过，数据库快照加上变更日志才是完整的
+            int removed = changes.removedCount();
+            if (persistedAfter - persistedBefore != removed) {
+                throw new IllegalStateException("加载期间有未读到的关注变更被持久化，持久化:"
+                        + (persistedAfter - persistedBefore) + "，读到:" + removed);
+            }
+        } catch (Exception e) {
+            log.error("关注图加载失败", e);
+            synchronized (loadLock) {
+                // 重建失败时旧图仍然可用，本次记录的变更已生效；首次加载失败时保留记录，重试后再应用
+                if (ready) {
+                    loading = false;
+                    loadingChanges.clear();
+                }
+            }
+            return false;
+        }
+        Map<Long, long[]> newFollowing = new ConcurrentHashMap<>(out.size() * 4 / 3 + 1);
+        Map<Long, long[]> newFollowers = new ConcurrentHashMap<>(in.size() * 4 / 3 + 1);
+        out.forEach((userId, buffer) -> newFollowing.put(userId, buffer.toSortedSet()));
+        in.forEach((userId, buffer) -> newFollowers.put(userId, buffer.toSortedSet()));
+        synchronized (loadLock) {
+            // 3.按顺序重放未持久化的变更，再应用本实例加载期间的变更
+            for (FollowChange change : changes.entries.values()) {
+                applyEdge(newFollowing, newFollowers, change.userId, change.followUserId, change.follow);
+            }
+            loadingChanges.forEach((edge, follow) -> {
+                int idx = edge.indexOf(':');
+                Long userId = Long.valueOf(edge.substring(0, idx));
+                Long followUserId = Long.valueOf(edge.substring(idx + 1));
+                applyEdge(newFollowing, newFollowers, userId, followUserId, follow);
+            });
+            loadingChanges.clear();
+            following = newFollowing;
+            followers = newFollowers;
+            loading = false;
+            ready = true;
+        }
+        log.info("关注图加载完成，用户数:{}，耗时:{}ms", newFollowing.size(), System.currentTimeMillis() - begin);
+        return true;
+    }
+
+    public void addEdge(Long userId, Long followUserId) {
+        if (loading && recordLoadingChange(userId, followUserId, true)) {
+            return;
+        }
+        applyEdge(following, followers, userId, followUserId, true);
+    }
+
+    public void removeEdge(Long userId, Long followUserId) {
+        if (loading && recordLoadingChange(userId, followUserId, false)) {
+            return;
+        }
+        applyEdge(following, followers, userId, followUserId, false);
+    }
+
+    // 加载期间记录变更并立即生效，返回false表示加载已完成，由调用方直接修改
+    private boolean recordLoadingChange(Long userId, Long followUserId, boolean follow) {
+        synchronized (loadLock) {
+            if (!loading) {
+                return false;
+            }
+            loadingChanges.put(userId + ":" + followUserId, follow);
+            applyEdge(following, followers, userId, followUserId, follow);
+            return true;
+        }
+    }
+
+    private static void applyEdge(Map<Long, long[]> following, Map<Long, long[]> followers,
+                                  Long userId, Long followUserId, boolean follow) {
+        if (follow) {
+            following.compute(userId, (k, v) -> insert(v, followUserId));
+            followers.compute(followUserId, (k, v) -> insert(v, userId));
+        } else {
+            following.computeIfPresent(userId, (k, v) -> delete(v, followUserId));
+            followers.computeIfPresent(followUserId, (k, v) -> delete(v, userId));
+        }
+    }
+
+    public boolean isFollowing(Long userId, Long followUserId) {
+        return Arrays.binarySearch(following.getOrDefault(userId, EMPTY), followUserId) >= 0;
+    }
+
+    public int followerCount(Long userId) {
+        return followers.getOrDefault(userId, EMPTY).length;
+    }
+
+    public int followingCount(Long userId) {
+        return following.getOrDefault(userId, EMPTY).length;
+    }
+
+    /**
+     * 共同关注
+     * @return 两人都关注的用户id，升序
+     */
+    public List<Long> commonFollows(Long userId, Long otherId) {
+        long[] a = following.getOrDefault(userId, EMPTY);
+        long[] b = following.getOrDefault(otherId, EMPTY);
+        long[] common = intersect(a, b);
+        List<Long> ids = new ArrayList<>(common.length);
+        for (long id : common) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * 二度人脉推荐：我关注的人关注了谁，按被关注次数倒序
+     * @param limit 最多返回数量
+     */
+    public List<Long> recommend(Long userId, int limit) {
+        long[] mine = following.getOrDefault(userId, EMPTY);
+        if (mine.length == 0) {
+            return Collections.emptyList();
+        }
+        // 1.统计二度关注出现次数，关注人多时并行
+        Map<Long, Integer> counts = mine.length > FORK_THRESHOLD
+                ? GRAPH_POOL.invoke(new SecondDegreeTask(mine, 0, mine.length))
+                : countSecondDegree(mine, 0, mine.length);
+        // 2.排除自己和已关注的人
+        counts.remove(userId);
+        for (long id : mine) {
+            counts.remove(id);
+        }
+        // 3.取出现次数最多的limit个
+        PriorityQueue<Map.Entry<Long, Integer>> top = new PriorityQueue<>(limit + 1, Map.Entry.comparingByValue());
+        for (Map.Entry<Long, Integer> entry : counts.entrySet()) {
+            top.offer(entry);
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+        List<Long> ids = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            ids.add(top.poll().getKey());
+        }
+        Collections.reverse(ids);
+        return ids;
+    }
+
+    private Map<Long, Integer> countSecondDegree(long[] seeds, int from, int to) {
+        Map<Long, Integer> counts = new HashMap<>();
+        for (int i = from; i < to; i++) {
+            for (long id : following.getOrDefault(seeds[i], EMPTY)) {
+                counts.merge(id, 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    private class SecondDegreeTask extends RecursiveTask<Map<Long, Integer>> {
+        private final long[] seeds;
+        private final int from;
+        private final int to;
+
+        SecondDegreeTask(long[] seeds, int from, int to) {
+            this.seeds = seeds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Map<Long, Integer> compute() {
+            if (to - from <= FORK_THRESHOLD) {
+                return countSecondDegree(seeds, from, to);
+            }
+            int mid = (from + to) >>> 1;
+            SecondDegreeTask left = new SecondDegreeTask(seeds, from, mid);
+            left.fork();
+            Map<Long, Integer> right = new SecondDegreeTask(seeds, mid, to).compute();
+            Map<Long, Integer> merged = left.join();
+            // 把小的合并到大的
+            if (merged.size() < right.size()) {
+                Map<Long, Integer> tmp = merged;
+                merged = right;
+                right = tmp;
+            }
+            for (Map.Entry<Long, Integer> entry : right.entrySet()) {
+                merged.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+            return merged;
+        }
+    }
+
+    // 有序数组求交集
+    static long[] intersect(long[] a, long[] b) {
+        if (a.length > b.length) {
+            long[] tmp = a;
+            a = b;
+            b = tmp;
+        }
+        long[] result = new long[a.length];
+        int n = 0;
+        // 两边大小悬殊时用二分查找，否则归并
+        if (a.length * 16 < b.length) {
+            int from = 0;
+            for (long x : a) {
+                int idx = Arrays.binarySearch(b, from, b.length, x);
+                if (idx >= 0) {
+                    result[n++] = x;
+                    from = idx + 1;
+                } else {
+                    from = -idx - 1;
+                }
+                if (from >= b.length) {
+                    break;
+                }
+            }
+        } else {
+            int i = 0, j = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) {
+                    i++;
+                } else if (a[i] > b[j]) {
+                    j++;
+                } else {
+                    result[n++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static long[] insert(long[] arr, long value) {
+        if (arr == null) {
+            return new long[]{value};
+        }
+        int idx = Arrays.binarySearch(arr, value);
+        if (idx >= 0) {
+            return arr;
+        }
+        int pos = -idx - 1;
+        long[] copy = new long[arr.length + 1];
+        System.arraycopy(arr, 0, copy, 0, pos);
+        copy[pos] = value;
+        System.arraycopy(arr, pos, copy, pos + 1, arr.length - pos);
+        return copy;
+    }
+
+    private static long[] delete(long[] arr, long value) {
+        int idx = Arrays.binarySearch(arr, value);
+        if (idx < 0) {
+            return arr;
+        }
+        if (arr.length == 1) {
+            // 返回null会移除这个用户
+            return null;
+        }
+        long[] copy = new long[arr.length - 1];
+        System.arraycopy(arr, 0, copy, 0, idx);
+        System.arraycopy(arr, idx + 1, copy, idx, arr.length - idx - 1);
+        return copy;
+    }
+
+    private static long[] union(long[] a, long[] b) {
+        long[] result = new long[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            long x;
+            if (j >= b.length || (i < a.length && a[i] < b[j])) {
+                x = a[i++];
+            } else if (i >= a.length || b[j] < a[i]) {
+                x = b[j++];
+            } else {
+                x = a[i++];
+                j++;
+            }
+            result[n++] = x;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    // 加载期间读到的变更日志
+    private class ChangeLog {
+        // stream id -> 变更，按读取顺序，也就是id顺序
+        final Map<String, FollowChange> entries = new LinkedHashMap<>();
+        // 最近一次完整读取时仍在stream中的id
+        private Set<String> present = Collections.emptySet();
+        private String lastId;
+
+        // 原子地读取已持久化变更数和全部未持久化的变更，返回已持久化变更数
+        @SuppressWarnings("unchecked")
+        long snapshot() {
+            List<Object> result = (List<Object>) stringRedisTemplate.execute(SNAPSHOT_SCRIPT,
+                    Arrays.asList(FOLLOW_STREAM_KEY, FOLLOW_PERSIST_SEQ_KEY), String.valueOf(FOLLOW_LOAD_REPLAY_LIMIT));
+            if (result == null || result.isEmpty()) {
+                throw new IllegalStateException("关注变更积压过多");
+            }
+            Set<String> ids = new HashSet<>();
+            for (int i = 1; i + 3 < result.size(); i += 4) {
+                String id = result.get(i).toString();
+                ids.add(id);
+                add(id, result.get(i + 1), result.get(i + 2), result.get(i + 3));
+            }
+            present = ids;
+            return Long.parseLong(result.get(0).toString());
+        }
+
+        // 读取上次之后新增的变更
+        void tail() {
+            while (true) {
+                Range<String> range = lastId == null ? Range.unbounded() : Range.rightUnbounded(Range.Bound.inclusive(lastId));
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.<Object, Object>opsForStream()
+                        .range(FOLLOW_STREAM_KEY, range, RedisZSetCommands.Limit.limit().count(TAIL_BATCH_SIZE));
+                if (records == null) {
+                    return;
+                }
+                for (MapRecord<String, Object, Object> record : records) {
+                    Map<Object, Object> value = record.getValue();
+                    add(record.getId().getValue(), value.get("userId"), value.get("followUserId"), value.get("op"));
+                }
+                if (records.size() < TAIL_BATCH_SIZE) {
+                    return;
+                }
+            }
+        }
+
+        private void add(String id, Object userId, Object followUserId, Object op) {
+            if (entries.containsKey(id)) {
+                return;
+            }
+            entries.put(id, new FollowChange(Long.parseLong(userId.toString()),
+                    Long.parseLong(followUserId.toString()), "1".equals(op.toString())));
+            lastId = id;
+        }
+
+        // 读到过、但最近一次读取时已从stream删除的变更数
+        int removedCount() {
+            int removed = 0;
+            for (String id : entries.keySet()) {
+                if (!present.contains(id)) {
+                    removed++;
+                }
+            }
+            return removed;
+        }
+    }
+
+    private static class FollowChange {
+        final long userId;
+        final long followUserId;
+        final boolean follow;
+
+        FollowChange(long userId, long followUserId, boolean follow) {
+            this.userId = userId;
+            this.followUserId = followUserId;
+            this.follow = follow;
+        }
+    }
+
+    // 加载阶段使用的可增长long数组
+    private static class LongBuffer {
+        private long[] values = new long[4];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size << 1);
+            }
+            values[size++] = value;
+        }
+
+        long[] toSortedSet() {
+            long[] arr = Arrays.copyOf(values, size);
+            Arrays.sort(arr);
+            int n = 0;
+            for (int i = 0; i < arr.length; i++) {
+                if (i == 0 || arr[i] != arr[i - 1]) {
+                    arr[n++] = arr[i];
+                }
+            }
+            return n == arr.length ? arr : Arrays.copyOf(arr, n);
+        }
+    }
+}
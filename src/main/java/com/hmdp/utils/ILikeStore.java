@@ -0,0 +1,33 @@
+package com.hmdp.utils;
+
+import java.util.List;
+
+// 笔记点赞存储引擎
+public interface ILikeStore {
+    /**
+     * 判断用户是否点赞
+     * @param blogId 笔记id
+     * @param userId 用户id
+     * @return true:已点赞
+     */
+    boolean isLiked(Long blogId, Long userId);
+
+    /**
+     * 点赞
+     * @return true:本次操作新增了点赞，false:之前已点赞
+     */
+    boolean like(Long blogId, Long userId);
+
+    /**
+     * 取消点赞
+     * @return true:本次操作取消了点赞，false:之前未点赞
+     */
+    boolean unlike(Long blogId, Long userId);
+
+    /**
+     * 查询点赞列表中展示的用户
+     * @param count 数量
+     * @return 用户id列表，按展示顺序排列
+     */
+    List<Long> topLikers(Long blogId, int count);
+}
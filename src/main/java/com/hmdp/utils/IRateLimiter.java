@@ -0,0 +1,12 @@
+package com.hmdp.utils;
+
+public interface IRateLimiter {
+    /**
+     * 尝试获取一次请求许可
+     * @param key 限流key
+     * @param permits 时间窗口内允许的请求数
+     * @param windowMillis 时间窗口，毫秒
+     * @return true:允许，false:被限流
+     */
+    boolean tryAcquire(String key, int permits, long windowMillis);
+}
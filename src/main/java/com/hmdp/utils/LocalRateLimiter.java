@@ -0,0 +1,56 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import org.springframework.stereotype.Component;
+
+// 单机令牌桶限流，桶容量为permits，每个时间窗口补满
+@Component
+public class LocalRateLimiter implements IRateLimiter {
+
+    // 最多保留的令牌桶数量，超出时淘汰最久未使用的
+    private static final int MAX_BUCKETS = 100000;
+
+    private final LRUCache<String, TokenBucket> buckets = CacheUtil.newLRUCache(MAX_BUCKETS);
+
+    @Override
+    public boolean tryAcquire(String key, int permits, long windowMillis) {
+        TokenBucket bucket = buckets.get(key, false);
+        if (bucket == null) {
+            synchronized (buckets) {
+                bucket = buckets.get(key, false);
+                if (bucket == null) {
+                    bucket = new TokenBucket(permits, windowMillis);
+                    buckets.put(key, bucket);
+                }
+            }
+        }
+        return bucket.tryAcquire();
+    }
+
+    private static class TokenBucket {
+        private final int capacity;
+        // 每毫秒补充的令牌数
+        private final double refillRate;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(int capacity, long windowMillis) {
+            this.capacity = capacity;
+            this.refillRate = (double) capacity / windowMillis;
+            this.tokens = capacity;
+            this.lastRefill = System.currentTimeMillis();
+        }
+
+        synchronized boolean tryAcquire() {
+            long now = System.currentTimeMillis();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * refillRate);
+            lastRefill = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 营业时间解析，把"10:00-22:00"这样的文本转成一周内的分钟区间
+ * 区间保存为有序的int数组[start0, end0, start1, end1...]，左闭右开，已合并相邻和重叠的区间
+ */
+public class OpenHours {
+
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    public static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
+    private static final int[] EMPTY = new int[0];
+    // 支持多段营业时间，例如"10:00-14:00,17:00-22:00"，结束早于开始表示营业到第二天
+    private static final Pattern RANGE = Pattern.compile("(\\d{1,2}):(\\d{2})\\s*[-~～至到]\\s*(\\d{1,2}):(\\d{2})");
+
+    private OpenHours() {
+    }
+
+    // 解析失败或为空时返回空数组，表示营业时间未知
+    public static int[] parse(String openHours) {
+        if (StrUtil.isBlank(openHours)) {
+            return EMPTY;
+        }
+        List<int[]> daily = new ArrayList<>();
+        Matcher matcher = RANGE.matcher(openHours);
+        while (matcher.find()) {
+            int start = Integer.parseInt(matcher.group(1)) * 60 + Integer.parseInt(matcher.group(2));
+            int end = Integer.parseInt(matcher.group(3)) * 60 + Integer.parseInt(matcher.group(4));
+            if (start >= MINUTES_PER_DAY || end > MINUTES_PER_DAY) {
+                continue;
+            }
+            if (end <= start) {
+                end += MINUTES_PER_DAY;
+            }
+            daily.add(new int[]{start, end});
+        }
+        if (daily.isEmpty()) {
+            return EMPTY;
+        }
+        // 每天的营业时间展开到一周，跨过周日24点的部分折回到周一
+        List<int[]> weekly = new ArrayList<>(daily.size() * 7 + 1);
+        for (int day = 0; day < 7; day++) {
+            int offset = day * MINUTES_PER_DAY;
+            for (int[] range : daily) {
+                int start = offset + range[0];
+                int end = offset + range[1];
+                if (end <= MINUTES_PER_WEEK) {
+                    weekly.add(new int[]{start, end});
+                } else {
+                    weekly.add(new int[]{start, MINUTES_PER_WEEK});
+                    weekly.add(new int[]{0, end - MINUTES_PER_WEEK});
+                }
+            }
+        }
+        return merge(weekly);
+    }
+
+    private static int[] merge(List<int[]> ranges) {
+        ranges.sort((a, b) -> Integer.compare(a[0], b[0]));
+        int[] merged = new int[ranges.size() * 2];
+        int n = 0;
+        for (int[] range : ranges) {
+            if (n > 0 && range[0] <= merged[n - 1]) {
+                merged[n - 1] = Math.max(merged[n - 1], range[1]);
+            } else {
+                merged[n++] = range[0];
+                merged[n++] = range[1];
+            }
+        }
+        return Arrays.copyOf(merged, n);
+    }
+
+    // 判断某个时刻是否在营业区间内
+    public static boolean isOpen(int[] intervals, int minuteOfWeek) {
+        // 二分查找最后一个start <= minuteOfWeek的区间
+        int lo = 0;
+        int hi = intervals.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (intervals[mid * 2] <= minuteOfWeek) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return hi >= 0 && minuteOfWeek < intervals[hi * 2 + 1];
+    }
+
+    // 周一0点为0
+    public static int minuteOfWeek(LocalDateTime time) {
+        return (time.getDayOfWeek().getValue() - 1) * MINUTES_PER_DAY + time.getHour() * 60 + time.getMinute();
+    }
+}
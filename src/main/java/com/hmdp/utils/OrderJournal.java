@@ -0,0 +1,409 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * 秒杀订单的本地日志，订单先追加到内存映射文件并落盘，再由后台线程转发到MQ或数据库
+ * MQ不可用时下单不会阻塞，也不会丢单
+ * 文件按段滚动，段头8字节记录已转发的位置，段内全部转发完后删除
+ */
+@Slf4j
+@Component
+public class OrderJournal {
+
+    private static final int MAGIC = 0x484D4F4A;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int FORWARDED_OFFSET = 8;
+    // orderId、userId、voucherId各8字节，crc 4字节，4字节补齐
+    private static final int RECORD_SIZE = 32;
+    // 组提交间隔，这段时间内的追加合并成一次fsync
+    private static final long FLUSH_INTERVAL_MILLIS = 2;
+    private static final long FORWARD_RETRY_MILLIS = 1000;
+    // 已转发未完成的订单上限
+    private static final int FORWARD_WINDOW = 1024;
+    private static final String SUFFIX = ".journal";
+
+    // 落盘线程和转发线程
+    private final ExecutorService journalExecutor = Executors.newFixedThreadPool(2);
+
+    @Value("${hmdp.order-journal.dir:./data/journal}")
+    private String dir;
+    // 每段的记录数，默认1M条，每段约32MB
+    @Value("${hmdp.order-journal.segment-records:1048576}")
+    private int segmentRecords = 1024 * 1024;
+
+    // 按段号排序，最后一个是正在写入的段
+    private final LinkedList<Segment> segments = new LinkedList<>();
+    private Segment current;
+    // 已追加和已落盘的记录序号
+    private long appendedSeq = 0;
+    private volatile long durableSeq = 0;
+    private final Object flushMonitor = new Object();
+
+    private volatile Function<VoucherOrder, CompletableFuture<?>> forwarder;
+    // 已转发未完成的订单，按日志位置排序，只由转发线程访问
+    private final ArrayDeque<Forwarding> inFlight = new ArrayDeque<>();
+    private volatile boolean running = true;
+
+    @PostConstruct
+    private void init() throws IOException {
+        File directory = new File(dir);
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("无法创建订单日志目录:" + directory.getAbsolutePath());
+        }
+        // 1.恢复上次未转发完的段
+        File[] files = directory.listFiles((d, name) -> name.endsWith(SUFFIX));
+        long nextId = 1;
+        if (files != null) {
+            Arrays.sort(files, Comparator.comparingLong(OrderJournal::segmentId));
+            for (File file : files) {
+                Segment segment = Segment.open(file, segmentId(file), segmentSize());
+                nextId = segment.id + 1;
+                if (!segment.recover()) {
+                    // 段头还没落盘就宕机的空段，直接删除
+                    log.warn("订单日志{}没有段头和有效记录，删除", file.getName());
+                    segment.close();
+                    if (!file.delete()) {
+                        log.warn("删除订单日志{}失败", file.getName());
+                    }
+                    continue;
+                }
+                segment.sealed = true;
+                segments.add(segment);
+                log.info("恢复订单日志{}，未转发订单数:{}", file.getName(),
+                        (segment.durablePos - segment.forwardedPos) / RECORD_SIZE);
+            }
+        }
+        // 2.新建写入段
+        current = Segment.open(new File(directory, nextId + SUFFIX), nextId, segmentSize());
+        segments.add(current);
+        journalExecutor.submit(new FlushHandler());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        synchronized (this) {
+            running = false;
+        }
+        journalExecutor.shutdownNow();
+        synchronized (flushMonitor) {
+            flushMonitor.notifyAll();
+        }
+    }
+
+    private int segmentSize() {
+        return HEADER_SIZE + RECORD_SIZE * segmentRecords;
+    }
+
+    private static long segmentId(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    // 启动转发线程，转发函数异步执行，失败的订单会一直重试，转发函数需要能处理重复的订单
+    public void startForwarder(Function<VoucherOrder, CompletableFuture<?>> forwarder) {
+        this.forwarder = forwarder;
+        journalExecutor.submit(new ForwardHandler());
+    }
+
+    /**
+     * 追加订单并等待落盘
+     * 日志已关闭时抛出IllegalStateException，调用方不能认为订单已保存
+     */
+    public void append(VoucherOrder order) {
+        long seq;
+        synchronized (this) {
+            if (!running) {
+                throw new IllegalStateException("订单日志已关闭");
+            }
+            if (current.writePos + RECORD_SIZE > current.size) {
+                roll();
+            }
+            current.write(order);
+            seq = ++appendedSeq;
+        }
+        // 等待组提交完成
+        synchronized (flushMonitor) {
+            flushMonitor.notifyAll();
+            while (durableSeq < seq) {
+                // 关闭后落盘线程已退出，不再等待
+                if (!running) {
+                    throw new IllegalStateException("订单日志已关闭，订单未落盘");
+                }
+                try {
+                    flushMonitor.wait(FLUSH_INTERVAL_MILLIS * 10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("等待订单日志落盘被中断", e);
+                }
+            }
+        }
+    }
+
+    // 当前段写满，落盘后封存，新建下一段，调用方持有this锁
+    // 封存段的durablePos由这里确定，之后不再修改
+    private void roll() {
+        current.force();
+        current.durablePos = current.writePos;
+        current.sealed = true;
+        try {
+            current = Segment.open(new File(dir, (current.id + 1) + SUFFIX), current.id + 1, segmentSize());
+        } catch (IOException e) {
+            throw new IllegalStateException("创建订单日志段失败", e);
+        }
+        segments.add(current);
+    }
+
+    private class FlushHandler implements Runnable {
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    synchronized (flushMonitor) {
+                        if (durableSeq == appendedSeqSnapshot()) {
+                            flushMonitor.wait(FLUSH_INTERVAL_MILLIS);
+                        }
+                    }
+                    Segment segment;
+                    long target;
+                    int pos;
+                    synchronized (OrderJournal.this) {
+                        segment = current;
+                        target = appendedSeq;
+                        pos = current.writePos;
+                    }
+                    if (target == durableSeq) {
+                        continue;
+                    }
+                    // 一次fsync让这段时间内追加的订单全部落盘
+                    segment.force();
+                    // 在锁内更新，段已被roll()封存时以roll()设置的位置为准，不能回退
+                    synchronized (OrderJournal.this) {
+                        if (!segment.sealed) {
+                            segment.durablePos = Math.max(segment.durablePos, pos);
+                        }
+                    }
+                    synchronized (flushMonitor) {
+                        durableSeq = target;
+                        flushMonitor.notifyAll();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    log.error("订单日志落盘异常", e);
+                }
+            }
+        }
+    }
+
+    private synchronized long appendedSeqSnapshot() {
+        return appendedSeq;
+    }
+
+    private class ForwardHandler implements Runnable {
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    if (!forwardOnce()) {
+                        Thread.sleep(FLUSH_INTERVAL_MILLIS * 5);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    log.error("订单转发失败，稍后重试", e);
+                    try {
+                        Thread.sleep(FORWARD_RETRY_MILLIS);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    // 转发最早一个段中已落盘的订单，没有任何进展时返回false
+    private boolean forwardOnce() throws InterruptedException {
+        Segment segment;
+        synchronized (this) {
+            segment = segments.getFirst();
+        }
+        boolean progressed = false;
+        // 1.在窗口内继续转发后面的订单，先读sealed再读durablePos，已封存的段读到的是roll()设置的最终位置
+        boolean sealed = segment.sealed;
+        int limit = segment.durablePos;
+        while (segment.submittedPos < limit && inFlight.size() < FORWARD_WINDOW) {
+            VoucherOrder order = segment.read(segment.submittedPos);
+            inFlight.addLast(new Forwarding(segment.submittedPos, order, forwarder.apply(order)));
+            segment.submittedPos += RECORD_SIZE;
+            progressed = true;
+        }
+        // 2.按日志顺序确认已完成的订单，失败的重新转发，检查点只推进到第一个未完成的订单
+        while (!inFlight.isEmpty() && inFlight.peekFirst().future.isDone()) {
+            Forwarding head = inFlight.peekFirst();
+            if (head.future.isCompletedExceptionally()) {
+                log.warn("订单转发失败，稍后重试，orderId:{}", head.order.getId());
+                Thread.sleep(FORWARD_RETRY_MILLIS);
+                head.future = forwarder.apply(head.order);
+                break;
+            }
+            inFlight.pollFirst();
+            progressed = true;
+        }
+        int checkpoint = inFlight.isEmpty() ? segment.submittedPos : inFlight.peekFirst().pos;
+        if (checkpoint != segment.forwardedPos) {
+            segment.forwardedPos = checkpoint;
+            // 检查点不单独落盘，重启后最多重复转发少量订单
+            segment.buffer.putLong(FORWARDED_OFFSET, checkpoint);
+        }
+        // 3.已封存且全部转发完的段可以删除
+        if (sealed && inFlight.isEmpty() && segment.forwardedPos >= limit) {
+            synchronized (this) {
+                segments.removeFirst();
+            }
+            segment.close();
+            if (!segment.file.delete()) {
+                log.warn("删除订单日志{}失败", segment.file.getName());
+            }
+            return true;
+        }
+        return progressed;
+    }
+
+    private static class Forwarding {
+        final int pos;
+        final VoucherOrder order;
+        CompletableFuture<?> future;
+
+        Forwarding(int pos, VoucherOrder order, CompletableFuture<?> future) {
+            this.pos = pos;
+            this.order = order;
+            this.future = future;
+        }
+    }
+
+    private static class Segment {
+        final long id;
+        final File file;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final int size;
+        int writePos = HEADER_SIZE;
+        volatile int durablePos = HEADER_SIZE;
+        int forwardedPos = HEADER_SIZE;
+        // 已交给转发函数的位置，只由转发线程访问
+        int submittedPos = HEADER_SIZE;
+        volatile boolean sealed = false;
+
+        private Segment(long id, File file, FileChannel channel, MappedByteBuffer buffer, int size) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.size = size;
+        }
+
+        // 已有的段按文件实际大小映射，段大小配置修改后旧段仍能恢复
+        static Segment open(File file, long id, int segmentSize) throws IOException {
+            boolean exists = file.exists() && file.length() >= HEADER_SIZE;
+            int size = exists ? (int) file.length() : segmentSize;
+            FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            Segment segment = new Segment(id, file, channel, buffer, size);
+            if (!exists) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putLong(FORWARDED_OFFSET, HEADER_SIZE);
+                buffer.force();
+            }
+            return segment;
+        }
+
+        // 扫描到第一条无效记录为止，确定已写入的位置，没有段头也没有有效记录时返回false
+        boolean recover() throws IOException {
+            if (buffer.getInt(0) != MAGIC) {
+                // 新建段后段头落盘前宕机，段头丢失
+                if (size < HEADER_SIZE + RECORD_SIZE || !isValid(HEADER_SIZE)) {
+                    return false;
+                }
+                // 记录有效而段头丢失，重写段头，从头转发
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putLong(FORWARDED_OFFSET, HEADER_SIZE);
+                buffer.force();
+            } else if (buffer.getInt(4) != VERSION) {
+                throw new IOException("订单日志版本不支持:" + file.getName());
+            }
+            forwardedPos = (int) Math.max(HEADER_SIZE, Math.min(buffer.getLong(FORWARDED_OFFSET), size));
+            forwardedPos -= (forwardedPos - HEADER_SIZE) % RECORD_SIZE;
+            int pos = HEADER_SIZE;
+            while (pos + RECORD_SIZE <= size && isValid(pos)) {
+                pos += RECORD_SIZE;
+            }
+            writePos = pos;
+            durablePos = pos;
+            forwardedPos = Math.min(forwardedPos, pos);
+            submittedPos = forwardedPos;
+            return true;
+        }
+
+        void write(VoucherOrder order) {
+            int pos = writePos;
+            buffer.putLong(pos, order.getId());
+            buffer.putLong(pos + 8, order.getUserId());
+            buffer.putLong(pos + 16, order.getVoucherId());
+            buffer.putInt(pos + 24, crc(pos));
+            writePos = pos + RECORD_SIZE;
+        }
+
+        VoucherOrder read(int pos) {
+            VoucherOrder order = new VoucherOrder();
+            order.setId(buffer.getLong(pos));
+            order.setUserId(buffer.getLong(pos + 8));
+            order.setVoucherId(buffer.getLong(pos + 16));
+            return order;
+        }
+
+        boolean isValid(int pos) {
+            return buffer.getLong(pos) != 0 && buffer.getInt(pos + 24) == crc(pos);
+        }
+
+        int crc(int pos) {
+            CRC32 crc = new CRC32();
+            for (int i = pos; i < pos + 24; i++) {
+                crc.update(buffer.get(i));
+            }
+            return (int) crc.getValue();
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("关闭订单日志{}失败", file.getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.VoucherOrder;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 订单消息编解码
+ * 二进制格式固定25字节：1字节版本号，订单id、用户id、优惠券id各8字节，大端序
+ * 解码时按content-type区分，兼容旧的JSON消息
+ * 默认发送JSON；滚动升级时先让所有节点都部署能解码二进制的版本，再把hmdp.order.message-format切换为binary
+ */
+public class OrderMessageCodec {
+
+    public static final String CONTENT_TYPE_BINARY = "application/x-hmdp-order";
+    public static final String FORMAT_BINARY = "binary";
+    public static final String FORMAT_JSON = "json";
+
+    private static final byte VERSION = 1;
+    private static final int BINARY_SIZE = 1 + 8 * 3;
+
+    private OrderMessageCodec() {
+    }
+
+    public static Message encode(VoucherOrder order, String format) {
+        if (FORMAT_JSON.equals(format)) {
+            return MessageBuilder.withBody(JSONUtil.toJsonStr(order).getBytes(StandardCharsets.UTF_8))
+                    .setContentType(MessageProperties.CONTENT_TYPE_TEXT_PLAIN)
+                    .setContentEncoding(StandardCharsets.UTF_8.name())
+                    .build();
+        }
+        byte[] body = ByteBuffer.allocate(BINARY_SIZE)
+                .put(VERSION)
+                .putLong(order.getId())
+                .putLong(order.getUserId())
+                .putLong(order.getVoucherId())
+                .array();
+        return MessageBuilder.withBody(body)
+                .setContentType(CONTENT_TYPE_BINARY)
+                .build();
+    }
+
+    public static VoucherOrder decode(Message message) {
+        byte[] body = message.getBody();
+        // 1.旧版本的JSON消息
+        if (!CONTENT_TYPE_BINARY.equals(message.getMessageProperties().getContentType())) {
+            return JSONUtil.toBean(new String(body, StandardCharsets.UTF_8), VoucherOrder.class);
+        }
+        // 2.二进制消息直接从字节中读取
+        if (body.length != BINARY_SIZE || body[0] != VERSION) {
+            throw new IllegalArgumentException("无法识别的订单消息，长度:" + body.length
+                    + "，版本:" + (body.length > 0 ? body[0] : -1));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(body, 1, BINARY_SIZE - 1);
+        VoucherOrder order = new VoucherOrder();
+        order.setId(buffer.getLong());
+        order.setUserId(buffer.getLong());
+        order.setVoucherId(buffer.getLong());
+        return order;
+    }
+}
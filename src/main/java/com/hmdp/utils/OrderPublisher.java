@@ -0,0 +1,223 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 订单消息的异步发布器，使用publisher confirm确认投递
+ * 发送线程把排队的消息分批在同一个channel上发送，未确认的消息数不超过窗口大小
+ * nack、被退回或发送异常的消息进入重试缓冲区按指数退避重发，超过次数后future以异常结束
+ */
+@Slf4j
+@Component
+public class OrderPublisher {
+
+    // 已发送未确认的消息上限
+    private static final int MAX_IN_FLIGHT = 1024;
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final int BATCH_SIZE = 100;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_BASE_MILLIS = 200;
+    private static final long STATS_INTERVAL_SECONDS = 60;
+
+    private static final ExecutorService PUBLISH_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final ScheduledExecutorService STATS_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    @Resource
+    private RabbitTemplate rabbitTemplate;
+
+    private final Semaphore window = new Semaphore(MAX_IN_FLIGHT);
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final DelayQueue<Pending> retries = new DelayQueue<>();
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder acked = new LongAdder();
+    private final LongAdder nacked = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    // 从调用publish到收到确认的耗时，纳秒
+    private final LongAdder latencyTotal = new LongAdder();
+    private final AtomicLong latencyMax = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    @PostConstruct
+    private void init() {
+        PUBLISH_EXECUTOR.submit(new PublishHandler());
+        STATS_EXECUTOR.scheduleWithFixedDelay(this::report, STATS_INTERVAL_SECONDS, STATS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        PUBLISH_EXECUTOR.shutdownNow();
+        STATS_EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * 异步发布消息，队列满时阻塞调用方
+     * @param id 消息id，用于关联确认
+     * @return broker确认后完成，重试次数用尽后以异常结束
+     */
+    public CompletableFuture<Void> publish(String exchange, String routingKey, Message message, String id) {
+        Pending pending = new Pending(exchange, routingKey, message, id);
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.future.completeExceptionally(e);
+        }
+        return pending.future;
+    }
+
+    private class PublishHandler implements Runnable {
+        @Override
+        public void run() {
+            List<Pending> batch = new ArrayList<>(BATCH_SIZE);
+            while (running) {
+                try {
+                    // 1.先取到期的重试消息，再取新消息，凑成一批
+                    retries.drainTo(batch, BATCH_SIZE);
+                    if (batch.isEmpty()) {
+                        Pending first = queue.poll(10, TimeUnit.MILLISECONDS);
+                        if (first == null) {
+                            continue;
+                        }
+                        batch.add(first);
+                    }
+                    queue.drainTo(batch, BATCH_SIZE - batch.size());
+                    // 2.占用发送窗口，窗口满时等待确认
+                    window.acquire(batch.size());
+                    send(batch);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    log.error("订单消息发送异常", e);
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    // 一批消息在同一个channel上发送，每条消息独立确认
+    private void send(List<Pending> batch) {
+        // 已发出的消息数，之后的消息由这里释放窗口并重试
+        int[] sent = {0};
+        try {
+            rabbitTemplate.invoke(operations -> {
+                for (Pending pending : batch) {
+                    CorrelationData correlation = new CorrelationData(pending.id);
+                    operations.send(pending.exchange, pending.routingKey, pending.message, correlation);
+                    published.increment();
+                    sent[0]++;
+                    correlation.getFuture().addCallback(
+                            confirm -> onConfirm(pending, correlation, confirm != null && confirm.isAck(),
+                                    confirm == null ? null : confirm.getReason()),
+                            e -> onConfirm(pending, correlation, false, e.toString()));
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            // 没有发出去的消息释放窗口后直接进入重试，已发出的由确认回调处理
+            log.warn("订单消息发送失败:{}", e.toString());
+            for (int i = sent[0]; i < batch.size(); i++) {
+                window.release();
+                retry(batch.get(i), e.toString());
+            }
+        }
+    }
+
+    private void onConfirm(Pending pending, CorrelationData correlation, boolean ack, String reason) {
+        window.release();
+        // 没有匹配队列的消息会被退回，同样算作失败
+        if (ack && correlation.getReturnedMessage() == null) {
+            acked.increment();
+            long latency = System.nanoTime() - pending.createdAt;
+            latencyTotal.add(latency);
+            latencyMax.accumulateAndGet(latency, Math::max);
+            pending.future.complete(null);
+            return;
+        }
+        nacked.increment();
+        retry(pending, ack ? "消息被退回" : reason);
+    }
+
+    private void retry(Pending pending, String reason) {
+        pending.attempts++;
+        if (pending.attempts >= MAX_ATTEMPTS) {
+            failed.increment();
+            log.error("订单消息发送失败，已重试{}次，id:{}，原因:{}", pending.attempts, pending.id, reason);
+            pending.future.completeExceptionally(new AmqpException("订单消息发送失败:" + reason));
+            return;
+        }
+        pending.dueAt = System.currentTimeMillis() + (RETRY_BASE_MILLIS << (pending.attempts - 1));
+        retries.add(pending);
+    }
+
+    // 发布统计：积压、在途、确认数和确认耗时
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long ackCount = acked.sum();
+        stats.put("backlog", queue.size() + retries.size());
+        stats.put("retrying", retries.size());
+        stats.put("inFlight", MAX_IN_FLIGHT - window.availablePermits());
+        stats.put("published", published.sum());
+        stats.put("acked", ackCount);
+        stats.put("nacked", nacked.sum());
+        stats.put("failed", failed.sum());
+        stats.put("avgLatencyMicros", ackCount == 0 ? 0 : latencyTotal.sum() / ackCount / 1000);
+        stats.put("maxLatencyMicros", latencyMax.get() / 1000);
+        return stats;
+    }
+
+    private void report() {
+        if (published.sum() > 0) {
+            log.info("订单消息发布统计:{}", stats());
+        }
+        // 最大耗时按统计周期重置
+        latencyMax.set(0);
+    }
+
+    private static class Pending implements Delayed {
+        final String exchange;
+        final String routingKey;
+        final Message message;
+        final String id;
+        final long createdAt = System.nanoTime();
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        int attempts = 0;
+        volatile long dueAt;
+
+        Pending(String exchange, String routingKey, Message message, String id) {
+            this.exchange = exchange;
+            this.routingKey = routingKey;
+            this.message = message;
+            this.id = id;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(dueAt, ((Pending) o).dueAt);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ParkedOrderDTO;
+import com.hmdp.entity.VoucherOrder;
+import com.rabbitmq.client.GetResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.config.TTLQueueConfig.*;
+
+/**
+ * 订单消息的重试和停车场
+ * 消费失败的消息按失败次数进入分级延迟队列，到期后回到QA重新消费，失败次数记录在消息头中
+ * 次数用尽或无法解析的消息进入停车场队列，管理接口可以查看并批量重放
+ * 转发都等待broker确认，确认失败时抛出异常，原消息由监听容器重新入队，不会丢失
+ */
+@Slf4j
+@Component
+public class OrderRetryHandler {
+
+    // 消息头中记录的失败次数
+    public static final String ATTEMPTS_HEADER = "x-order-attempts";
+    // 消息头中记录的最后一次失败原因
+    public static final String ERROR_HEADER = "x-order-error";
+    // 最多消费的次数，超过后进入停车场
+    public static final int MAX_ATTEMPTS = RETRY_DELAYS.length + 1;
+    // 管理接口单次处理的最大消息数
+    public static final int MAX_BATCH = 1000;
+
+    private static final long CONFIRM_TIMEOUT_SECONDS = 5;
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    private final MessagePropertiesConverter propertiesConverter = new DefaultMessagePropertiesConverter();
+
+    @Resource
+    private RabbitTemplate rabbitTemplate;
+
+    /**
+     * 消费失败，按失败次数转入对应的延迟队列，次数用尽时转入停车场
+     */
+    public void retry(Message message, Throwable cause) {
+        int attempts = attemptsOf(message) + 1;
+        if (attempts >= MAX_ATTEMPTS) {
+            log.error("订单消息重试{}次仍然失败，进入停车场", attempts, cause);
+            forward(message, PARKING_LOT_ROUTING_KEY, attempts, cause);
+            return;
+        }
+        String queue = retryQueue(attempts - 1);
+        log.warn("订单消息第{}次消费失败，{}毫秒后重试:{}", attempts, RETRY_DELAYS[attempts - 1], cause.toString());
+        forward(message, queue, attempts, cause);
+    }
+
+    /**
+     * 无法解析的消息重试也没有意义，直接进入停车场
+     */
+    public void park(Message message, Throwable cause) {
+        log.error("无法解析的订单消息，进入停车场", cause);
+        forward(message, PARKING_LOT_ROUTING_KEY, attemptsOf(message), cause);
+    }
+
+    /**
+     * 查看停车场中的消息，取出后全部退回队列，不影响队列中的消息
+     */
+    public List<ParkedOrderDTO> peekParked(int count) {
+        int limit = Math.min(count, MAX_BATCH);
+        return rabbitTemplate.execute(channel -> {
+            List<ParkedOrderDTO> parked = new ArrayList<>();
+            long lastTag = -1;
+            try {
+                while (parked.size() < limit) {
+                    GetResponse response = channel.basicGet(PARKING_LOT_QUEUE, false);
+                    if (response == null) {
+                        break;
+                    }
+                    lastTag = response.getEnvelope().getDeliveryTag();
+                    parked.add(toParkedOrder(toMessage(response)));
+                }
+            } finally {
+                if (lastTag >= 0) {
+                    channel.basicNack(lastTag, true, true);
+                }
+            }
+            return parked;
+        });
+    }
+
+    /**
+     * 把停车场中的消息重新发送到X交换机，失败次数清零，确认后才从停车场删除
+     * @return 重放的消息数
+     */
+    public int replayParked(int count) {
+        int limit = Math.min(count, MAX_BATCH);
+        return rabbitTemplate.invoke(operations -> operations.execute(channel -> {
+            // 1.在同一个channel上取出并重新发送
+            List<Long> tags = new ArrayList<>();
+            List<CorrelationData> confirms = new ArrayList<>();
+            while (tags.size() < limit) {
+                GetResponse response = channel.basicGet(PARKING_LOT_QUEUE, false);
+                if (response == null) {
+                    break;
+                }
+                Message message = MessageBuilder.fromMessage(toMessage(response))
+                        .removeHeader(ATTEMPTS_HEADER)
+                        .removeHeader(ERROR_HEADER)
+                        .setDeliveryMode(MessageDeliveryMode.PERSISTENT)
+                        .build();
+                CorrelationData correlation = new CorrelationData();
+                tags.add(response.getEnvelope().getDeliveryTag());
+                confirms.add(correlation);
+                operations.send(X_EXCHANGE, "XA", message, correlation);
+            }
+            // 2.确认成功的从停车场删除，其余的退回
+            int replayed = 0;
+            for (int i = 0; i < tags.size(); i++) {
+                if (isAcked(confirms.get(i))) {
+                    channel.basicAck(tags.get(i), false);
+                    replayed++;
+                } else {
+                    channel.basicNack(tags.get(i), false, true);
+                }
+            }
+            log.info("重放停车场订单消息{}条，失败{}条", replayed, tags.size() - replayed);
+            return replayed;
+        }));
+    }
+
+    // 转发到重试交换机，等待确认
+    private void forward(Message message, String routingKey, int attempts, Throwable cause) {
+        Message copy = MessageBuilder.fromClonedMessage(message)
+                .setHeader(ATTEMPTS_HEADER, attempts)
+                .setHeader(ERROR_HEADER, errorOf(cause))
+                .setDeliveryMode(MessageDeliveryMode.PERSISTENT)
+                .build();
+        CorrelationData correlation = new CorrelationData();
+        rabbitTemplate.send(RETRY_EXCHANGE, routingKey, copy, correlation);
+        if (!isAcked(correlation)) {
+            throw new AmqpException("订单消息转发到" + routingKey + "未被确认");
+        }
+    }
+
+    private boolean isAcked(CorrelationData correlation) {
+        try {
+            CorrelationData.Confirm confirm = correlation.getFuture().get(CONFIRM_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return confirm.isAck() && correlation.getReturnedMessage() == null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private Message toMessage(GetResponse response) {
+        MessageProperties properties = propertiesConverter.toMessageProperties(
+                response.getProps(), response.getEnvelope(), StandardCharsets.UTF_8.name());
+        return new Message(response.getBody(), properties);
+    }
+
+    private ParkedOrderDTO toParkedOrder(Message message) {
+        ParkedOrderDTO parked = new ParkedOrderDTO();
+        parked.setAttempts(attemptsOf(message));
+        Object error = message.getMessageProperties().getHeaders().get(ERROR_HEADER);
+        parked.setError(error == null ? null : error.toString());
+        try {
+            VoucherOrder order = OrderMessageCodec.decode(message);
+            parked.setOrderId(order.getId());
+            parked.setUserId(order.getUserId());
+            parked.setVoucherId(order.getVoucherId());
+        } catch (RuntimeException e) {
+            log.debug("停车场消息无法解析", e);
+        }
+        return parked;
+    }
+
+    private static int attemptsOf(Message message) {
+        Object attempts = message.getMessageProperties().getHeaders().get(ATTEMPTS_HEADER);
+        return attempts instanceof Number ? ((Number) attempts).intValue() : 0;
+    }
+
+    private static String errorOf(Throwable cause) {
+        String error = cause.toString();
+        return error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error;
+    }
+}
@@ -0,0 +1,54 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.*;
+
+/**
+ * 接口限流，标注在Controller方法上
+ * 配置项 hmdp.rate-limit.{key}.permits 和 hmdp.rate-limit.{key}.window 可以覆盖注解中的值
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface RateLimit {
+
+    /**
+     * 限流名称，同时作为Redis key和配置项的一部分
+     */
+    String key();
+
+    /**
+     * 时间窗口内允许的请求数
+     */
+    int permits();
+
+    /**
+     * 时间窗口，秒
+     */
+    int window() default 1;
+
+    /**
+     * 限流维度
+     */
+    Scope scope() default Scope.USER;
+
+    /**
+     * 限流实现
+     */
+    Backend backend() default Backend.REDIS;
+
+    enum Scope {
+        // 按登录用户，未登录时按ip
+        USER,
+        // 按ip
+        IP,
+        // 整个接口
+        GLOBAL
+    }
+
+    enum Backend {
+        // 单机令牌桶
+        LOCAL,
+        // Redis滑动窗口，集群共享
+        REDIS
+    }
+}
@@ -0,0 +1,9 @@
+package com.hmdp.utils;
+
+// 触发限流
+public class RateLimitException extends RuntimeException {
+
+    public RateLimitException(String key) {
+        super("请求过于频繁: " + key);
+    }
+}
@@ -0,0 +1,69 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.springframework.core.env.Environment;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+
+// 根据Controller方法上的@RateLimit注解限流
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private static final String CONFIG_PREFIX = "hmdp.rate-limit.";
+
+    private LocalRateLimiter localRateLimiter;
+    private RedisRateLimiter redisRateLimiter;
+    private Environment environment;
+    private List<String> trustedProxies;
+
+    // 运用构造函数注入
+    public RateLimitInterceptor(LocalRateLimiter localRateLimiter, RedisRateLimiter redisRateLimiter, Environment environment) {
+        this.localRateLimiter = localRateLimiter;
+        this.redisRateLimiter = redisRateLimiter;
+        this.environment = environment;
+        this.trustedProxies = RequestUtils.trustedProxies(environment);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1.判断接口是否需要限流，异步接口的二次分派不重复计数
+        if (request.getDispatcherType() == DispatcherType.ASYNC || !(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        RateLimit rateLimit = ((HandlerMethod) handler).getMethodAnnotation(RateLimit.class);
+        if (rateLimit == null) {
+            return true;
+        }
+        // 2.读取限流配置，配置文件优先
+        int permits = environment.getProperty(CONFIG_PREFIX + rateLimit.key() + ".permits", Integer.class, rateLimit.permits());
+        int window = environment.getProperty(CONFIG_PREFIX + rateLimit.key() + ".window", Integer.class, rateLimit.window());
+        // 3.拼接限流key
+        String key = rateLimit.key() + ":" + subject(rateLimit.scope(), request);
+        IRateLimiter limiter = rateLimit.backend() == RateLimit.Backend.LOCAL ? localRateLimiter : redisRateLimiter;
+        // 4.超出限制，交给WebExceptionAdvice返回429
+        if (!limiter.tryAcquire(key, permits, window * 1000L)) {
+            throw new RateLimitException(key);
+        }
+        return true;
+    }
+
+    private String subject(RateLimit.Scope scope, HttpServletRequest request) {
+        switch (scope) {
+            case GLOBAL:
+                return "all";
+            case USER:
+                UserDTO user = UserHolder.getUser();
+                if (user != null) {
+                    return "u" + user.getId();
+                }
+                return "ip" + RequestUtils.clientIp(request, trustedProxies);
+            case IP:
+            default:
+                return "ip" + RequestUtils.clientIp(request, trustedProxies);
+        }
+    }
+}
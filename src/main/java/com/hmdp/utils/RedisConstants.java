@@ -5,6 +5,14 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 36000L;
+    // 剩余有效期比LOGIN_USER_TTL少这么多分钟时才续期
+    public static final Long LOGIN_USER_REFRESH_SLACK = 30L;
+    // 登录用户本地缓存，秒
+    public static final Long LOGIN_USER_LOCAL_TTL = 10L;
+    public static final int LOGIN_USER_LOCAL_SIZE = 10000;
+    public static final String LOGIN_REVOKED_KEY = "login:revoked";
+    // 吊销列表本地刷新间隔，秒
+    public static final Long LOGIN_REVOKED_REFRESH = 10L;
 
     public static final Long CACHE_NULL_TTL = 2L;
 
@@ -12,13 +20,58 @@ public class RedisConstants {
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
     public static final String CACHE_SHOPTYPE_KEY = "cache:shoptype:";
+    public static final String CACHE_SHOPTYPE_VERSION_KEY = "cache:shoptype:version";
+    // 本地商铺类型快照检查版本的间隔，毫秒
+    public static final long CACHE_SHOPTYPE_CHECK_INTERVAL = 5000L;
+
+    public static final Long CACHE_VOUCHER_TTL = 30L;
+    public static final String CACHE_VOUCHER_KEY = "cache:voucher:";
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+    // 用户信息本地缓存，秒
+    public static final Long CACHE_USER_LOCAL_TTL = 30L;
+    public static final int CACHE_USER_LOCAL_SIZE = 10000;
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKED_BITMAP_KEY = "blog:liked:bitmap:";
+    public static final String BLOG_LIKED_RECENT_KEY = "blog:liked:recent:";
+    // bitmap点赞引擎中点赞列表保留的人数
+    public static final int BLOG_LIKED_RECENT_SIZE = 20;
     public static final String FEED_KEY = "feed:";
+    public static final String FOLLOW_KEY = "follows:";
+    // 关注集合占位成员，保证关注为空的用户也能命中缓存
+    public static final String FOLLOW_PLACEHOLDER = "0";
+    public static final String FOLLOW_STREAM_KEY = "stream.follows";
+    public static final String FOLLOW_STREAM_GROUP = "g1";
+    // 已持久化并从stream删除的关注变更数，重建关注集合和关注图时据此判断数据库快照是否完整
+    public static final String FOLLOW_PERSIST_SEQ_KEY = "stream.follows:persisted";
+    // 其他消费者未确认的关注变更空闲超过该时长后被接管，毫秒
+    public static final long FOLLOW_PENDING_CLAIM_IDLE = 60000L;
+    // 重建关注集合和关注图时重放的变更上限，stream积压超过该值时不重建，避免脚本长时间阻塞Redis
+    public static final int FOLLOW_LOAD_REPLAY_LIMIT = 10000;
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_RANK_KEY = "rank:shop:";
+    // 重建排行榜时使用的临时key，不能以SHOP_RANK_KEY开头
+    public static final String SHOP_RANK_TMP_KEY = "rank:tmp:shop:";
     public static final String USER_SIGN_KEY = "sign:";
+
+    public static final String RATE_LIMIT_KEY = "limit:";
+
+    public static final String UV_KEY = "uv:";
+    // 日UV保留天数
+    public static final Long UV_TTL = 90L;
+    // 合并后的区间UV缓存，小时
+    public static final Long UV_MERGED_TTL = 24L;
+    // 本地访问记录刷新间隔，毫秒
+    public static final long UV_FLUSH_INTERVAL = 1000L;
+    public static final String SIGN_ARCHIVED_KEY = "archive:sign:";
+    // 归档后签到key的保留天数，过期后统计连续签到从tb_sign读取
+    public static final Long SIGN_KEEP_DAYS = 40L;
+    // 统计连续签到时最多向前查询的月数
+    public static final int SIGN_STREAK_MAX_MONTHS = 12;
 }
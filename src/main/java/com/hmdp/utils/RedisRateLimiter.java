@@ -0,0 +1,45 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.RATE_LIMIT_KEY;
+
+// Redis滑动窗口限流，lua脚本保证原子性
+@Component
+public class RedisRateLimiter implements IRateLimiter {
+
+    private static final DefaultRedisScript<Long> RATE_LIMIT_SCRIPT;
+    static {
+        RATE_LIMIT_SCRIPT = new DefaultRedisScript<>();
+        RATE_LIMIT_SCRIPT.setLocation(new ClassPathResource("ratelimit.lua"));
+        RATE_LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    // 同一毫秒内的请求用序号区分ZSET成员
+    private static final String ID_PREFIX = UUID.randomUUID().toString(true) + "-";
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public RedisRateLimiter(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @Override
+    public boolean tryAcquire(String key, int permits, long windowMillis) {
+        Long result = stringRedisTemplate.execute(
+                RATE_LIMIT_SCRIPT,
+                Collections.singletonList(RATE_LIMIT_KEY + key),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(windowMillis),
+                String.valueOf(permits), ID_PREFIX + sequence.incrementAndGet()
+        );
+        return result != null && result == 1;
+    }
+}
@@ -1,27 +1,22 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+public class RefreshTokenInterceptor implements AsyncHandlerInterceptor {
 
-public class RefreshTokenInterceptor implements HandlerInterceptor {
+    private SessionCache sessionCache;
 
-    private StringRedisTemplate stringRedisTemplate;
+    private SignedTokenService signedTokenService;
 
     // 运用构造函数注入
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    public RefreshTokenInterceptor(SessionCache sessionCache, SignedTokenService signedTokenService) {
+        this.sessionCache = sessionCache;
+        this.signedTokenService = signedTokenService;
     }
 
     @Override
@@ -32,21 +27,27 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
             return true;
         }
         // 2.从token中获取用户
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(LOGIN_USER_KEY + token);
+        // 2.1 签名令牌，本地校验签名
+        // 2.2 UUID令牌，先查本地缓存，未命中时查询Redis并刷新token有效期
+        UserDTO userDTO = SignedTokenService.isSigned(token)
+                ? signedTokenService.verify(token)
+                : sessionCache.get(token);
         // 3.判断用户是否存在
-        if(userMap.isEmpty()){
+        if(userDTO == null){
             return true;
         }
-        // 4.将hash数据转化为UserDTO对象
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
-        // 5.存在，保存用户到ThreadLocal
+        // 4.存在，保存用户到ThreadLocal
         UserHolder.saveUser(userDTO);
-        // 6.刷新token有效期
-        stringRedisTemplate.expire(LOGIN_USER_KEY + token,LOGIN_USER_TTL, TimeUnit.MINUTES);
-        // 7.放行
+        // 5.放行
         return true;
     }
 
+    // 异步接口开始异步处理后，请求线程不会执行afterCompletion，需要在这里清理
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserHolder.removeUser();
+    }
+
     @Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
         UserHolder.removeUser();
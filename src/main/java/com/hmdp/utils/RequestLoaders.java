@@ -0,0 +1,64 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.service.IUserService;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// 请求内共享的批量加载器，保存在request属性中，同一请求多次查询相同的用户和笔记只查一次
+@Component
+public class RequestLoaders {
+
+    private static final String USER_LOADER = RequestLoaders.class.getName() + ".user";
+    private static final String BLOG_LOADER = RequestLoaders.class.getName() + ".blog";
+
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    public BatchLoader<Long, UserDTO> users() {
+        return getOrCreate(USER_LOADER, () -> new BatchLoader<>(ids ->
+                toMap(userService.queryUserDTOs(ids), UserDTO::getId)));
+    }
+
+    public BatchLoader<Long, Blog> blogs() {
+        return getOrCreate(BLOG_LOADER, () -> new BatchLoader<>(ids ->
+                toMap(blogMapper.selectBatchIds(ids), Blog::getId)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> BatchLoader<K, V> getOrCreate(String name, Supplier<BatchLoader<K, V>> factory) {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        // 1.不在请求线程中（如ioExecutor），只在本次调用内批量
+        if (attributes == null) {
+            return factory.get();
+        }
+        // 2.请求线程中，整个请求共享一个加载器
+        BatchLoader<K, V> loader = (BatchLoader<K, V>) attributes.getAttribute(name, RequestAttributes.SCOPE_REQUEST);
+        if (loader == null) {
+            loader = factory.get();
+            attributes.setAttribute(name, loader, RequestAttributes.SCOPE_REQUEST);
+        }
+        return loader;
+    }
+
+    private static <K, V> Map<K, V> toMap(List<V> values, Function<V, K> keyFn) {
+        Map<K, V> map = new HashMap<>(values.size());
+        for (V value : values) {
+            map.put(keyFn.apply(value), value);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.Validator;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.StrUtil;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+public class RequestUtils {
+
+    private static final String TRUSTED_PROXIES_KEY = "hmdp.trusted-proxies";
+
+    /**
+     * 获取客户端ip
+     * 只有直接对端是可信代理时才读取X-Forwarded-For，从右向左跳过可信代理，取第一个不可信的地址
+     * @param request 请求
+     * @param trustedProxies 可信代理的ip或IPv4网段(CIDR)
+     * @return 客户端ip
+     */
+    public static String clientIp(HttpServletRequest request, Collection<String> trustedProxies) {
+        String remote = request.getRemoteAddr();
+        String forwarded = request.getHeader("X-Forwarded-For");
+        if (StrUtil.isBlank(forwarded) || !isTrusted(remote, trustedProxies)) {
+            return remote;
+        }
+        String[] hops = forwarded.split(",");
+        String ip = remote;
+        for (int i = hops.length - 1; i >= 0; i--) {
+            String hop = hops[i].trim();
+            if (hop.isEmpty()) {
+                continue;
+            }
+            ip = hop;
+            if (!isTrusted(hop, trustedProxies)) {
+                break;
+            }
+        }
+        return ip;
+    }
+
+    /**
+     * 读取配置的可信代理列表
+     */
+    public static List<String> trustedProxies(Environment environment) {
+        return Binder.get(environment)
+                .bind(TRUSTED_PROXIES_KEY, Bindable.listOf(String.class))
+                .orElse(Collections.emptyList());
+    }
+
+    private static boolean isTrusted(String ip, Collection<String> trustedProxies) {
+        for (String proxy : trustedProxies) {
+            if (proxy.equals(ip)) {
+                return true;
+            }
+            // 网段只支持IPv4
+            if (proxy.indexOf('/') > 0 && Validator.isIpv4(ip) && NetUtil.isInRange(ip, proxy)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,92 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.hmdp.dto.UserDTO;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+// 登录用户的本地缓存，token -> UserDTO
+// 本地缓存过期前不访问Redis，过期后用一次lua调用完成查询和按需续期
+@Component
+public class SessionCache {
+
+    private static final DefaultRedisScript<List> SESSION_SCRIPT;
+    static {
+        SESSION_SCRIPT = new DefaultRedisScript<>();
+        SESSION_SCRIPT.setLocation(new ClassPathResource("session.lua"));
+        SESSION_SCRIPT.setResultType(List.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final LRUCache<String, UserDTO> cache =
+            CacheUtil.newLRUCache(LOGIN_USER_LOCAL_SIZE, TimeUnit.SECONDS.toMillis(LOGIN_USER_LOCAL_TTL));
+
+    public SessionCache(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 根据token查询登录用户
+     * @return 用户信息，未登录返回null
+     */
+    public UserDTO get(String token) {
+        // 1.查询本地缓存
+        UserDTO user = cache.get(token, false);
+        if (user != null) {
+            return user;
+        }
+        // 2.本地不存在，查询Redis并按需刷新有效期
+        long ttlSeconds = TimeUnit.MINUTES.toSeconds(LOGIN_USER_TTL);
+        long threshold = ttlSeconds - TimeUnit.MINUTES.toSeconds(LOGIN_USER_REFRESH_SLACK);
+        List<?> fields = stringRedisTemplate.execute(
+                SESSION_SCRIPT,
+                Collections.singletonList(LOGIN_USER_KEY + token),
+                String.valueOf(threshold), String.valueOf(ttlSeconds)
+        );
+        if (fields == null || fields.isEmpty()) {
+            return null;
+        }
+        // 3.hash转UserDTO
+        user = toUserDTO(fields);
+        cache.put(token, user);
+        return user;
+    }
+
+    // 退出登录时清除本地缓存
+    public void invalidate(String token) {
+        cache.remove(token);
+    }
+
+    // HGETALL返回field、value交替的列表
+    private static UserDTO toUserDTO(List<?> fields) {
+        UserDTO user = new UserDTO();
+        for (int i = 0; i + 1 < fields.size(); i += 2) {
+            String field = String.valueOf(fields.get(i));
+            String value = String.valueOf(fields.get(i + 1));
+            switch (field) {
+                case "id":
+                    user.setId(Long.valueOf(value));
+                    break;
+                case "nickName":
+                    user.setNickName(value);
+                    break;
+                case "icon":
+                    user.setIcon(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return user;
+    }
+}
@@ -0,0 +1,353 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// 进程内的商铺列式索引，每个属性一个基本类型数组，类型和商圈用位图过滤，排序字段预先排好序
+// 支持按类型、商圈、均价区间、是否营业筛选并按评分、销量、评论数排序，不查数据库
+// 索引只通过put增量更新（本实例的新增、修改商铺和销量合并写入），以及定时从tb_shop全量刷新，因此：
+// sold最多落后本实例一个销量合并周期，其他实例产生的销量要等下次全量刷新；
+// score、comments以及其他实例或直接在数据库中修改的字段，也要等下次全量刷新；
+// 数据库中删除的商铺不会从索引中移除，需要重启
+// 排序结果在写锁内重建并降级为读锁使用，查询看到的排序与过滤用的列数据总是一致的
+@Slf4j
+@Component
+public class ShopIndex {
+
+    public static final String SORT_SCORE = "score";
+    public static final String SORT_SOLD = "sold";
+    public static final String SORT_COMMENTS = "comments";
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // 营业时间索引把一周按30分钟分桶
+    private static final int OPEN_BUCKET_MINUTES = 30;
+    private static final int OPEN_BUCKETS = OpenHours.MINUTES_PER_WEEK / OPEN_BUCKET_MINUTES;
+
+    // 全量刷新间隔，毫秒
+    private static final long REFRESH_INTERVAL = 10 * 60 * 1000L;
+    // 全量加载时每批写入的商铺数
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    private static final ExecutorService INDEX_LOAD_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final ShopMapper shopMapper;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // 商铺id -> 槽位，每个商铺在各个列数组中占同一个下标
+    private final Map<Long, Integer> slots = new HashMap<>();
+    private int size = 0;
+    private Shop[] rows = new Shop[INITIAL_CAPACITY];
+    private long[] avgPrices = new long[INITIAL_CAPACITY];
+    private int[] scores = new int[INITIAL_CAPACITY];
+    private int[] solds = new int[INITIAL_CAPACITY];
+    private int[] comments = new int[INITIAL_CAPACITY];
+    private long[] typeIds = new long[INITIAL_CAPACITY];
+    private String[] areas = new String[INITIAL_CAPACITY];
+    private int[][] openIntervals = new int[INITIAL_CAPACITY][];
+    private final Map<Long, BitSet> byType = new HashMap<>();
+    private final Map<String, BitSet> byArea = new HashMap<>();
+    // 每个时间桶内全程营业的商铺，以及只有部分时间营业、需要按区间精确判断的商铺
+    private final BitSet[] openFull = new BitSet[OPEN_BUCKETS];
+    private final BitSet[] openPartial = new BitSet[OPEN_BUCKETS];
+
+    // 按各排序字段降序排列的槽位，数据变化后在下次查询时重建，读写都在锁内
+    private final Map<String, int[]> sorted = new HashMap<>();
+    private boolean sortedDirty = true;
+
+    private volatile boolean ready = false;
+
+    public ShopIndex(ShopMapper shopMapper) {
+        this.shopMapper = shopMapper;
+        for (int i = 0; i < OPEN_BUCKETS; i++) {
+            openFull[i] = new BitSet();
+            openPartial[i] = new BitSet();
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        INDEX_LOAD_EXECUTOR.submit(this::load);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // 流式读取tb_shop构建索引
+    private void load() {
+        long begin = System.currentTimeMillis();
+        if (!loadAll()) {
+            return;
+        }
+        ready = true;
+        log.info("商铺索引加载完成，商铺数:{}，耗时:{}ms", size, System.currentTimeMillis() - begin);
+    }
+
+    // 定时全量刷新，修正增量更新覆盖不到的字段；首次加载失败时在这里重试
+    @Scheduled(initialDelay = REFRESH_INTERVAL, fixedDelay = REFRESH_INTERVAL)
+    public void refresh() {
+        if (!ready) {
+            load();
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        if (loadAll()) {
+            log.debug("商铺索引刷新完成，商铺数:{}，耗时:{}ms", size, System.currentTimeMillis() - begin);
+        }
+    }
+
+    // 流式读取，每LOAD_BATCH_SIZE行加一次写锁写入，内存中只保留一批
+    private boolean loadAll() {
+        List<Shop> batch = new ArrayList<>(LOAD_BATCH_SIZE);
+        try {
+            shopMapper.streamAll(context -> {
+                batch.add(context.getResultObject());
+                if (batch.size() >= LOAD_BATCH_SIZE) {
+                    putBatch(batch);
+                }
+            });
+            putBatch(batch);
+        } catch (Exception e) {
+            log.error("商铺索引加载失败", e);
+            return false;
+        }
+        return true;
+    }
+
+    private void putBatch(List<Shop> batch) {
+        lock.writeLock().lock();
+        try {
+            for (Shop shop : batch) {
+                // 读取期间增量写入的数据更新，不覆盖
+                Integer slot = slots.get(shop.getId());
+                if (slot == null || !isNewer(rows[slot], shop)) {
+                    putLocked(shop);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        batch.clear();
+    }
+
+    private static boolean isNewer(Shop current, Shop loaded) {
+        return current.getUpdateTime() != null && loaded.getUpdateTime() != null
+                && current.getUpdateTime().isAfter(loaded.getUpdateTime());
+    }
+
+    // 新增或更新商铺，传入完整的商铺数据
+    public void put(Shop shop) {
+        lock.writeLock().lock();
+        try {
+            putLocked(shop);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void putLocked(Shop shop) {
+        Integer slot = slots.get(shop.getId());
+        if (slot == null) {
+            slot = size++;
+            ensureCapacity(size);
+            slots.put(shop.getId(), slot);
+        } else {
+            // 更新时先从原来的类型和商圈位图中移除
+            clearBit(byType, typeIds[slot], slot);
+            clearBit(byArea, areas[slot], slot);
+            indexOpenHours(openIntervals[slot], slot, false);
+        }
+        rows[slot] = shop;
+        avgPrices[slot] = shop.getAvgPrice() == null ? 0 : shop.getAvgPrice();
+        scores[slot] = shop.getScore() == null ? 0 : shop.getScore();
+        solds[slot] = shop.getSold() == null ? 0 : shop.getSold();
+        comments[slot] = shop.getComments() == null ? 0 : shop.getComments();
+        typeIds[slot] = shop.getTypeId() == null ? 0 : shop.getTypeId();
+        areas[slot] = shop.getArea() == null ? "" : shop.getArea();
+        openIntervals[slot] = OpenHours.parse(shop.getOpenHours());
+        byType.computeIfAbsent(typeIds[slot], k -> new BitSet()).set(slot);
+        byArea.computeIfAbsent(areas[slot], k -> new BitSet()).set(slot);
+        indexOpenHours(openIntervals[slot], slot, true);
+        sortedDirty = true;
+    }
+
+    // 把营业区间覆盖的时间桶设置到位图中，set为false时清除
+    private void indexOpenHours(int[] intervals, int slot, boolean set) {
+        for (int i = 0; i < intervals.length; i += 2) {
+            int start = intervals[i];
+            int end = intervals[i + 1];
+            for (int b = start / OPEN_BUCKET_MINUTES; b <= (end - 1) / OPEN_BUCKET_MINUTES; b++) {
+                int bucketStart = b * OPEN_BUCKET_MINUTES;
+                boolean full = start <= bucketStart && end >= bucketStart + OPEN_BUCKET_MINUTES;
+                (full ? openFull : openPartial)[b].set(slot, set);
+            }
+        }
+    }
+
+    // 某个时刻营业的商铺，调用方需持有读锁
+    private BitSet openAtLocked(int minuteOfWeek) {
+        int b = minuteOfWeek / OPEN_BUCKET_MINUTES;
+        BitSet open = (BitSet) openFull[b].clone();
+        BitSet partial = openPartial[b];
+        for (int i = partial.nextSetBit(0); i >= 0; i = partial.nextSetBit(i + 1)) {
+            if (!open.get(i) && OpenHours.isOpen(openIntervals[i], minuteOfWeek)) {
+                open.set(i);
+            }
+        }
+        return open;
+    }
+
+    private static <K> void clearBit(Map<K, BitSet> bitmaps, K key, int slot) {
+        BitSet bits = bitmaps.get(key);
+        if (bits != null) {
+            bits.clear(slot);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= rows.length) {
+            return;
+        }
+        int newLength = Math.max(capacity, rows.length * 2);
+        rows = Arrays.copyOf(rows, newLength);
+        avgPrices = Arrays.copyOf(avgPrices, newLength);
+        scores = Arrays.copyOf(scores, newLength);
+        solds = Arrays.copyOf(solds, newLength);
+        comments = Arrays.copyOf(comments, newLength);
+        typeIds = Arrays.copyOf(typeIds, newLength);
+        areas = Arrays.copyOf(areas, newLength);
+        openIntervals = Arrays.copyOf(openIntervals, newLength);
+    }
+
+    /**
+     * 多条件查询商铺
+     * @param typeId 类型，为空不过滤
+     * @param area 商圈，为空不过滤
+     * @param minPrice 最低均价，为空不过滤
+     * @param maxPrice 最高均价，为空不过滤
+     * @param openAt 一周内的分钟数，只返回该时刻营业的商铺，为空不过滤
+     * @param sortBy 排序字段，score、sold、comments之一，为空按id排序
+     * @param from 跳过的条数
+     * @param count 返回的条数
+     * @return 当前页商铺和符合条件的总数
+     */
+    public Page query(Long typeId, String area, Long minPrice, Long maxPrice, Integer openAt,
+                      String sortBy, int from, int count) {
+        lock.readLock().lock();
+        if (sortBy != null && sortedDirty) {
+            // 排序结果已过期，换成写锁重建，再降级为读锁，查询期间数据不会变化
+            lock.readLock().unlock();
+            lock.writeLock().lock();
+            try {
+                rebuildSortedLocked();
+                lock.readLock().lock();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        try {
+            // 1.位图过滤类型和商圈
+            BitSet matched = new BitSet(size);
+            matched.set(0, size);
+            if (typeId != null) {
+                matched.and(byType.getOrDefault(typeId, new BitSet()));
+            }
+            if (area != null) {
+                matched.and(byArea.getOrDefault(area, new BitSet()));
+            }
+            if (openAt != null) {
+                matched.and(openAtLocked(openAt));
+            }
+            // 2.扫描均价列过滤价格区间
+            if (minPrice != null || maxPrice != null) {
+                long min = minPrice == null ? Long.MIN_VALUE : minPrice;
+                long max = maxPrice == null ? Long.MAX_VALUE : maxPrice;
+                for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+                    if (avgPrices[i] < min || avgPrices[i] > max) {
+                        matched.clear(i);
+                    }
+                }
+            }
+            // 3.按排序顺序取出当前页
+            int total = matched.cardinality();
+            List<Shop> shops = new ArrayList<>(Math.max(0, Math.min(count, total - from)));
+            int skipped = 0;
+            if (sortBy == null) {
+                for (int i = matched.nextSetBit(0); i >= 0 && shops.size() < count; i = matched.nextSetBit(i + 1)) {
+                    if (skipped++ >= from) {
+                        shops.add(rows[i]);
+                    }
+                }
+            } else {
+                for (int slot : sorted.get(sortBy)) {
+                    if (shops.size() >= count) {
+                        break;
+                    }
+                    if (matched.get(slot) && skipped++ >= from) {
+                        shops.add(rows[slot]);
+                    }
+                }
+            }
+            return new Page(shops, total);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 重建各排序字段的槽位顺序，按字段降序，相同时按槽位升序，调用方需持有写锁
+    private void rebuildSortedLocked() {
+        if (!sortedDirty) {
+            return;
+        }
+        sorted.put(SORT_SCORE, sortDesc(scores));
+        sorted.put(SORT_SOLD, sortDesc(solds));
+        sorted.put(SORT_COMMENTS, sortDesc(comments));
+        sortedDirty = false;
+    }
+
+    private int[] sortDesc(int[] column) {
+        // 高32位放取反后的排序值，低32位放槽位，升序排列即为按值降序
+        long[] packed = new long[size];
+        for (int i = 0; i < size; i++) {
+            packed[i] = ((long) (Integer.MAX_VALUE - column[i]) << 32) | i;
+        }
+        Arrays.sort(packed);
+        int[] slotsInOrder = new int[size];
+        for (int i = 0; i < size; i++) {
+            slotsInOrder[i] = (int) packed[i];
+        }
+        return slotsInOrder;
+    }
+
+    public static boolean isSortKey(String sortBy) {
+        return SORT_SCORE.equals(sortBy) || SORT_SOLD.equals(sortBy) || SORT_COMMENTS.equals(sortBy);
+    }
+
+    public static class Page {
+        private final List<Shop> shops;
+        private final long total;
+
+        Page(List<Shop> shops, long total) {
+            this.shops = shops;
+            this.total = total;
+        }
+
+        public List<Shop> getShops() {
+            return shops;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+// 按商铺类型维护的排行榜，每个类型每个指标一个ZSET，商铺数据变化时增量更新，每天全量重建一次修正
+@Slf4j
+@Component
+public class ShopLeaderboard {
+
+    public static final List<String> METRICS = Arrays.asList(ShopIndex.SORT_SCORE, ShopIndex.SORT_SOLD, ShopIndex.SORT_COMMENTS);
+
+    private static final int REBUILD_BATCH_SIZE = 500;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    // rank:shop:score:1
+    public static String key(String metric, Long typeId) {
+        return SHOP_RANK_KEY + metric + ":" + typeId;
+    }
+
+    private static String tmpKey(String metric, Long typeId) {
+        return SHOP_RANK_TMP_KEY + metric + ":" + typeId;
+    }
+
+    private static double metricOf(Shop shop, String metric) {
+        Integer value;
+        switch (metric) {
+            case ShopIndex.SORT_SCORE:
+                value = shop.getScore();
+                break;
+            case ShopIndex.SORT_SOLD:
+                value = shop.getSold();
+                break;
+            default:
+                value = shop.getComments();
+        }
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * 写入商铺的各项指标
+     * @param shop 完整的商铺数据
+     * @param previousTypeId 修改前的类型，类型变化时从原来的排行榜中移除
+     */
+    public void update(Shop shop, Long previousTypeId) {
+        if (shop.getTypeId() == null) {
+            return;
+        }
+        String member = shop.getId().toString();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String metric : METRICS) {
+                if (previousTypeId != null && !previousTypeId.equals(shop.getTypeId())) {
+                    conn.zRem(key(metric, previousTypeId), member);
+                }
+                conn.zAdd(key(metric, shop.getTypeId()), metricOf(shop, metric), member);
+            }
+            return null;
+        });
+    }
+
+    // 每天凌晨流式读取tb_shop重建排行榜，先写临时key再RENAME，重建期间排行榜照常可读
+    @Scheduled(cron = "0 0 4 * * ?")
+    public void rebuild() {
+        // 多实例部署时只有一个实例执行
+        RLock lock = redissonClient.getLock("lock:shop:rank");
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            // 1.清理上次中断留下的临时key
+            deleteKeys(SHOP_RANK_TMP_KEY + "*", key -> true);
+            // 2.分批写入临时key
+            Set<Long> typeIds = new HashSet<>();
+            List<Shop> batch = new ArrayList<>(REBUILD_BATCH_SIZE);
+            shopMapper.streamAll(context -> {
+                batch.add(context.getResultObject());
+                if (batch.size() >= REBUILD_BATCH_SIZE) {
+                    writeBatch(batch, typeIds);
+                    batch.clear();
+                }
+            });
+            writeBatch(batch, typeIds);
+            // 3.用临时key原子替换
+            for (Long typeId : typeIds) {
+                for (String metric : METRICS) {
+                    stringRedisTemplate.rename(tmpKey(metric, typeId), key(metric, typeId));
+                }
+            }
+            // 4.删除已经没有商铺的类型的排行榜
+            for (String metric : METRICS) {
+                String prefix = SHOP_RANK_KEY + metric + ":";
+                deleteKeys(prefix + "*", key -> !typeIds.contains(Long.valueOf(key.substring(prefix.length()))));
+            }
+            log.info("商铺排行榜重建完成，类型数:{}，耗时:{}ms", typeIds.size(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("商铺排行榜重建失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeBatch(List<Shop> shops, Set<Long> typeIds) {
+        if (shops.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Shop shop : shops) {
+                if (shop.getTypeId() == null) {
+                    continue;
+                }
+                typeIds.add(shop.getTypeId());
+                for (String metric : METRICS) {
+                    conn.zAdd(tmpKey(metric, shop.getTypeId()), metricOf(shop, metric), shop.getId().toString());
+                }
+            }
+            return null;
+        });
+    }
+
+    private void deleteKeys(String pattern, Predicate<String> filter) {
+        List<String> keys = stringRedisTemplate.execute((RedisCallback<List<String>>) connection -> {
+            List<String> found = new ArrayList<>();
+            ScanOptions options = ScanOptions.scanOptions().match(pattern).count(1000).build();
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                while (cursor.hasNext()) {
+                    String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                    if (filter.test(key)) {
+                        found.add(key);
+                    }
+                }
+            } catch (java.io.IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return found;
+        });
+        if (keys != null && !keys.isEmpty()) {
+            stringRedisTemplate.delete(keys);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.hmdp.utils;
+
+import cn.hutool.bloomfilter.BitSetBloomFilter;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+// 无状态登录令牌：payload.signature，payload携带UserDTO和过期时间，用HMAC-SHA256签名
+// 校验只需本地计算签名；退出登录的令牌记录在Redis吊销集合中，本地用布隆过滤器过滤
+@Slf4j
+@Component
+public class SignedTokenService {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final byte VERSION = 1;
+    // HMAC-SHA256密钥的最小长度
+    private static final int MIN_SECRET_LENGTH = 32;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private static final ScheduledExecutorService REVOKE_REFRESH_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    private final StringRedisTemplate stringRedisTemplate;
+    // 是否启用签名令牌，redis模式下不签发，也不维护吊销列表
+    private final boolean signedMode;
+    private final SecretKeySpec key;
+    // Mac不是线程安全的，每个线程复用一个
+    private final ThreadLocal<Mac> macs;
+
+    private volatile BitSetBloomFilter revoked = newFilter();
+
+    public SignedTokenService(StringRedisTemplate stringRedisTemplate,
+                              @Value("${hmdp.token.mode:redis}") String mode,
+                              @Value("${hmdp.token.secret:}") String secret) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.signedMode = "signed".equals(mode);
+        byte[] keyBytes;
+        // 签名模式下随机密钥会让重启和多实例间的令牌互不认可，必须配置外部密钥
+        if (signedMode && (StrUtil.isBlank(secret) || secret.getBytes(StandardCharsets.UTF_8).length < MIN_SECRET_LENGTH)) {
+            throw new IllegalStateException("hmdp.token.mode=signed时必须通过环境变量HMDP_TOKEN_SECRET配置至少"
+                    + MIN_SECRET_LENGTH + "字节的hmdp.token.secret");
+        }
+        if (StrUtil.isBlank(secret)) {
+            // 只有redis模式会走到这里，不签发令牌，随机密钥让伪造的签名令牌无法通过校验
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!signedMode) {
+            return;
+        }
+        REVOKE_REFRESH_EXECUTOR.scheduleWithFixedDelay(this::reloadRevoked, 0, LOGIN_REVOKED_REFRESH, TimeUnit.SECONDS);
+    }
+
+    // 判断是否是签名令牌，UUID令牌不含'.'
+    public static boolean isSigned(String token) {
+        return token.indexOf('.') > 0;
+    }
+
+    /**
+     * 签发令牌
+     * @param user 登录用户
+     * @param ttlSeconds 有效期，秒
+     */
+    public String issue(UserDTO user, long ttlSeconds) {
+        byte[] nickName = bytes(user.getNickName());
+        byte[] icon = bytes(user.getIcon());
+        // 版本(1) + 用户id(8) + 过期时间(8) + 昵称长度(2) + 昵称 + 头像长度(2) + 头像
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 8 + 2 + nickName.length + 2 + icon.length);
+        buffer.put(VERSION)
+                .putLong(user.getId())
+                .putLong(System.currentTimeMillis() / 1000 + ttlSeconds)
+                .putShort((short) nickName.length).put(nickName)
+                .putShort((short) icon.length).put(icon);
+        byte[] payload = buffer.array();
+        return ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(sign(payload));
+    }
+
+    /**
+     * 校验令牌
+     * @return 用户信息，签名错误、过期或已吊销返回null
+     */
+    public UserDTO verify(String token) {
+        int dot = token.indexOf('.');
+        try {
+            // 1.校验签名
+            byte[] payload = DECODER.decode(token.substring(0, dot));
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(sign(payload), signature)) {
+                return null;
+            }
+            // 2.校验版本和过期时间
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            if (buffer.get() != VERSION) {
+                return null;
+            }
+            UserDTO user = new UserDTO();
+            user.setId(buffer.getLong());
+            if (buffer.getLong() < System.currentTimeMillis() / 1000) {
+                return null;
+            }
+            user.setNickName(readString(buffer));
+            user.setIcon(readString(buffer));
+            // 3.校验是否已吊销，布隆过滤器命中时才查询Redis确认
+            if (isRevoked(token.substring(dot + 1))) {
+                return null;
+            }
+            return user;
+        } catch (IllegalArgumentException | java.nio.BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    // 退出登录，吊销令牌直到其自然过期；签名错误、已过期或已吊销的令牌直接忽略，避免伪造令牌写入吊销集合
+    public void revoke(String token) {
+        if (verify(token) == null) {
+            return;
+        }
+        int dot = token.indexOf('.');
+        byte[] payload = DECODER.decode(token.substring(0, dot));
+        long expireAt = ByteBuffer.wrap(payload).getLong(9);
+        String signature = token.substring(dot + 1);
+        stringRedisTemplate.opsForZSet().add(LOGIN_REVOKED_KEY, signature, expireAt);
+        synchronized (this) {
+            revoked.add(signature);
+        }
+    }
+
+    private boolean isRevoked(String signature) {
+        if (!revoked.contains(signature)) {
+            return false;
+        }
+        return stringRedisTemplate.opsForZSet().score(LOGIN_REVOKED_KEY, signature) != null;
+    }
+
+    // 定期从Redis重建布隆过滤器，清理已过期的吊销记录
+    private void reloadRevoked() {
+        try {
+            stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_REVOKED_KEY, 0, System.currentTimeMillis() / 1000);
+            Set<String> signatures = stringRedisTemplate.opsForZSet().range(LOGIN_REVOKED_KEY, 0, -1);
+            BitSetBloomFilter filter = newFilter();
+            if (signatures != null) {
+                signatures.forEach(filter::add);
+            }
+            synchronized (this) {
+                revoked = filter;
+            }
+        } catch (Exception e) {
+            log.error("刷新令牌吊销列表失败", e);
+        }
+    }
+
+    private byte[] sign(byte[] payload) {
+        return macs.get().doFinal(payload);
+    }
+
+    private static BitSetBloomFilter newFilter() {
+        // 每个元素10bit，预计10万个元素，7个哈希函数
+        return new BitSetBloomFilter(10, 100000, 7);
+    }
+
+    private static byte[] bytes(String str) {
+        return str == null ? new byte[0] : str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        String str = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return str;
+    }
+}
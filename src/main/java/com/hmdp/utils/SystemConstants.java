@@ -5,4 +5,16 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    // 商铺详情页展示的笔记数
+    public static final int SHOP_PAGE_BLOG_SIZE = 3;
+    // 商铺详情页各部分的超时时间，毫秒
+    public static final long SHOP_PAGE_SHOP_TIMEOUT = 300;
+    public static final long SHOP_PAGE_VOUCHER_TIMEOUT = 300;
+    public static final long SHOP_PAGE_BLOG_TIMEOUT = 500;
+    // 商铺销量增量合并写入数据库的间隔，毫秒
+    public static final long SHOP_SOLD_FLUSH_INTERVAL = 1000;
+    // 订单消费本地去重窗口大小
+    public static final int PROCESSED_ORDER_CACHE_SIZE = 100000;
+    // 优惠券所属商铺的本地缓存大小
+    public static final int VOUCHER_SHOP_CACHE_SIZE = 10000;
 }
@@ -0,0 +1,182 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+// UserHolder的上下文快照，提交异步任务时捕获，执行时在工作线程上恢复，执行完还原
+public final class UserContext {
+
+    private final UserDTO user;
+
+    private UserContext(UserDTO user) {
+        this.user = user;
+    }
+
+    // 捕获当前线程的登录用户
+    public static UserContext capture() {
+        return new UserContext(UserHolder.getUser());
+    }
+
+    public static UserContext of(UserDTO user) {
+        return new UserContext(user);
+    }
+
+    public UserDTO getUser() {
+        return user;
+    }
+
+    public Runnable wrap(Runnable task) {
+        return () -> {
+            UserDTO previous = attach();
+            try {
+                task.run();
+            } finally {
+                detach(previous);
+            }
+        };
+    }
+
+    public <T> Callable<T> wrap(Callable<T> task) {
+        return () -> {
+            UserDTO previous = attach();
+            try {
+                return task.call();
+            } finally {
+                detach(previous);
+            }
+        };
+    }
+
+    public <T> Supplier<T> wrap(Supplier<T> task) {
+        return () -> {
+            UserDTO previous = attach();
+            try {
+                return task.get();
+            } finally {
+                detach(previous);
+            }
+        };
+    }
+
+    public <T, R> Function<T, R> wrap(Function<T, R> task) {
+        return t -> {
+            UserDTO previous = attach();
+            try {
+                return task.apply(t);
+            } finally {
+                detach(previous);
+            }
+        };
+    }
+
+    private UserDTO attach() {
+        UserDTO previous = UserHolder.getUser();
+        if (user == null) {
+            UserHolder.removeUser();
+        } else {
+            UserHolder.saveUser(user);
+        }
+        return previous;
+    }
+
+    private static void detach(UserDTO previous) {
+        if (previous == null) {
+            UserHolder.removeUser();
+        } else {
+            UserHolder.saveUser(previous);
+        }
+    }
+
+    /**
+     * 包装线程池，任务在提交时捕获登录用户
+     * 注意CompletableFuture的xxxAsync在前一个阶段完成的线程上提交，需要在组装时用UserHolder.wrap显式捕获
+     */
+    public static ExecutorService wrap(ExecutorService executor) {
+        return new ContextExecutorService(executor);
+    }
+
+    private static class ContextExecutorService extends AbstractExecutorService {
+        private final ExecutorService delegate;
+
+        ContextExecutorService(ExecutorService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(capture().wrap(command));
+        }
+
+        @Override
+        public <T> Future<T> submit(Callable<T> task) {
+            return delegate.submit(capture().wrap(task));
+        }
+
+        @Override
+        public Future<?> submit(Runnable task) {
+            return delegate.submit(capture().wrap(task));
+        }
+
+        @Override
+        public <T> Future<T> submit(Runnable task, T result) {
+            return delegate.submit(capture().wrap(task), result);
+        }
+
+        @Override
+        public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+            return delegate.invokeAll(wrapAll(tasks));
+        }
+
+        @Override
+        public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.invokeAll(wrapAll(tasks), timeout, unit);
+        }
+
+        @Override
+        public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+            return delegate.invokeAny(wrapAll(tasks));
+        }
+
+        @Override
+        public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            return delegate.invokeAny(wrapAll(tasks), timeout, unit);
+        }
+
+        private static <T> List<Callable<T>> wrapAll(Collection<? extends Callable<T>> tasks) {
+            UserContext context = capture();
+            return tasks.stream().map(context::wrap).collect(Collectors.toList());
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -3,6 +3,9 @@ package com.hmdp.utils;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
+import java.util.function.Function;
+import java.util.function.Supplier;
+
 public class UserHolder {
     private static final ThreadLocal<UserDTO> tl = new ThreadLocal<>();
 
@@ -17,4 +20,13 @@ public class UserHolder {
     public static void removeUser(){
         tl.remove();
     }
+
+    // 包装异步任务，执行时恢复提交任务时的登录用户
+    public static <T> Supplier<T> wrap(Supplier<T> task){
+        return UserContext.capture().wrap(task);
+    }
+
+    public static <T, R> Function<T, R> wrap(Function<T, R> task){
+        return UserContext.capture().wrap(task);
+    }
 }
@@ -0,0 +1,158 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+// 用HyperLogLog统计店铺、笔记的日UV
+// 访问记录先缓存在本地，定时用pipeline批量PFADD，不增加读接口的延迟
+@Slf4j
+@Component
+public class UvCounter {
+
+    public static final String TYPE_SHOP = "shop";
+    public static final String TYPE_BLOG = "blog";
+
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+    // 本地缓存的访问记录上限，超过后丢弃，UV统计允许少量误差
+    private static final int BUFFER_LIMIT = 100000;
+    // 一次最多查询的天数
+    private static final int MAX_RANGE_DAYS = 90;
+
+    private static final ScheduledExecutorService UV_FLUSH_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final List<String> trustedProxies;
+
+    // uv key -> 访客
+    private final AtomicReference<Map<String, Set<String>>> buffer = new AtomicReference<>(new ConcurrentHashMap<>());
+    // 记录访问时持有读锁，交换缓冲区时持有写锁，换下来的缓冲区不会再有写入
+    private final ReadWriteLock bufferLock = new ReentrantReadWriteLock();
+    private final AtomicInteger buffered = new AtomicInteger();
+
+    public UvCounter(StringRedisTemplate stringRedisTemplate, Environment environment) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.trustedProxies = RequestUtils.trustedProxies(environment);
+    }
+
+    @PostConstruct
+    private void init() {
+        UV_FLUSH_EXECUTOR.scheduleWithFixedDelay(this::flush, UV_FLUSH_INTERVAL, UV_FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        UV_FLUSH_EXECUTOR.shutdown();
+        flush();
+    }
+
+    /**
+     * 记录一次访问，登录用户按用户id去重，未登录按ip去重
+     */
+    public void record(String type, Long id, HttpServletRequest request) {
+        if (buffered.get() >= BUFFER_LIMIT) {
+            return;
+        }
+        UserDTO user = UserHolder.getUser();
+        String visitor = user != null ? "u" + user.getId() : "ip" + RequestUtils.clientIp(request, trustedProxies);
+        String key = uvKey(type, id, LocalDate.now());
+        bufferLock.readLock().lock();
+        try {
+            if (buffer.get().computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(visitor)) {
+                buffered.incrementAndGet();
+            }
+        } finally {
+            bufferLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 统计日期范围内的UV，多天时合并去重
+     * @param begin 开始日期，包含
+     * @param end 结束日期，包含
+     */
+    public long count(String type, Long id, LocalDate begin, LocalDate end) {
+        if (end.isBefore(begin)) {
+            return 0;
+        }
+        if (end.isAfter(begin.plusDays(MAX_RANGE_DAYS - 1))) {
+            begin = end.minusDays(MAX_RANGE_DAYS - 1);
+        }
+        List<String> keys = new ArrayList<>();
+        for (LocalDate day = begin; !day.isAfter(end); day = day.plusDays(1)) {
+            keys.add(uvKey(type, id, day));
+        }
+        if (keys.size() == 1) {
+            // PFCOUNT key
+            return stringRedisTemplate.opsForHyperLogLog().size(keys.get(0));
+        }
+        // 已结束的日期范围不会再变化，PFMERGE结果缓存起来
+        if (end.isBefore(LocalDate.now())) {
+            String mergedKey = UV_KEY + type + ":" + id + ":" + begin.format(DAY_FORMATTER) + "-" + end.format(DAY_FORMATTER);
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(mergedKey))) {
+                stringRedisTemplate.opsForHyperLogLog().union(mergedKey, keys.toArray(new String[0]));
+                stringRedisTemplate.expire(mergedKey, UV_MERGED_TTL, TimeUnit.HOURS);
+            }
+            return stringRedisTemplate.opsForHyperLogLog().size(mergedKey);
+        }
+        // PFCOUNT key1 key2 ...
+        return stringRedisTemplate.opsForHyperLogLog().size(keys.toArray(new String[0]));
+    }
+
+    // 批量写入Redis
+    private void flush() {
+        if (buffered.get() == 0) {
+            return;
+        }
+        Map<String, Set<String>> pending;
+        bufferLock.writeLock().lock();
+        try {
+            pending = buffer.getAndSet(new ConcurrentHashMap<>());
+            buffered.set(0);
+        } finally {
+            bufferLock.writeLock().unlock();
+        }
+        try {
+            long ttl = TimeUnit.DAYS.toSeconds(UV_TTL);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                pending.forEach((key, visitors) -> {
+                    // PFADD key v1 v2 ...
+                    conn.pfAdd(key, visitors.toArray(new String[0]));
+                    conn.expire(key, ttl);
+                });
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("写入UV统计失败", e);
+        }
+    }
+
+    private static String uvKey(String type, Long id, LocalDate day) {
+        return UV_KEY + type + ":" + id + ":" + day.format(DAY_FORMATTER);
+    }
+}
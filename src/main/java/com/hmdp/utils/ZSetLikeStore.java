@@ -0,0 +1,62 @@
+package com.hmdp.utils;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+
+// 用ZSET保存全部点赞用户，score为点赞时间
+@Component
+@ConditionalOnProperty(name = "hmdp.like.store", havingValue = "zset", matchIfMissing = true)
+public class ZSetLikeStore implements ILikeStore {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public ZSetLikeStore(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @Override
+    public boolean isLiked(Long blogId, Long userId) {
+        Double score = stringRedisTemplate.opsForZSet().score(BLOG_LIKED_KEY + blogId, userId.toString());
+        return score != null;
+    }
+
+    @Override
+    public boolean like(Long blogId, Long userId) {
+        // ZADD NX，已存在时不覆盖点赞时间，返回false
+        return zAddNx(stringRedisTemplate, BLOG_LIKED_KEY + blogId, userId.toString(), System.currentTimeMillis());
+    }
+
+    @Override
+    public boolean unlike(Long blogId, Long userId) {
+        Long removed = stringRedisTemplate.opsForZSet().remove(BLOG_LIKED_KEY + blogId, userId.toString());
+        return removed != null && removed > 0;
+    }
+
+    // ZADD key NX score member，成员已存在时不修改score，返回是否新增
+    static boolean zAddNx(StringRedisTemplate template, String key, String member, long score) {
+        Long added = template.execute((RedisCallback<Long>) connection -> (Long) connection.execute("ZADD",
+                key.getBytes(StandardCharsets.UTF_8), "NX".getBytes(StandardCharsets.UTF_8),
+                String.valueOf(score).getBytes(StandardCharsets.UTF_8), member.getBytes(StandardCharsets.UTF_8)));
+        return added != null && added > 0;
+    }
+
+    @Override
+    public List<Long> topLikers(Long blogId, int count) {
+        // zrange key 0 count-1，最早点赞的用户在前
+        Set<String> top = stringRedisTemplate.opsForZSet().range(BLOG_LIKED_KEY + blogId, 0, count - 1);
+        if (top == null || top.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return top.stream().map(Long::valueOf).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,23 @@
+-- 1.参数列表
+-- 1.1 关注集合key
+local followKey = KEYS[1]
+-- 1.2 变更日志stream key
+local streamKey = KEYS[2]
+-- 1.3 用户id、被关注用户id、操作（1：关注，0：取关）
+local userId = ARGV[1]
+local followUserId = ARGV[2]
+local op = ARGV[3]
+
+-- 2.修改关注集合
+local changed
+if(op == '1') then
+    changed = redis.call('sadd', followKey, followUserId)
+else
+    changed = redis.call('srem', followKey, followUserId)
+end
+
+-- 3.集合确实发生变化时才记录变更日志，重复关注不会产生数据库写入
+if(changed == 1) then
+    redis.call('xadd', streamKey, '*', 'userId', userId, 'followUserId', followUserId, 'op', op)
+end
+return changed
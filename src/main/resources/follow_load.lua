@@ -0,0 +1,49 @@
+-- 1.参数列表
+-- 1.1 关注集合key
+local followKey = KEYS[1]
+-- 1.2 变更日志stream key
+local streamKey = KEYS[2]
+-- 1.3 已持久化变更数key
+local seqKey = KEYS[3]
+-- 1.4 查询数据库前读到的已持久化变更数
+local seq = ARGV[1]
+-- 1.5 重放变更的上限
+local limit = tonumber(ARGV[2])
+-- 1.6 用户id，ARGV[4]起为数据库中关注的用户id，第一个是占位成员
+local userId = ARGV[3]
+
+-- 2.集合已被其他请求重建
+if(redis.call('exists', followKey) == 1) then
+    return 1
+end
+-- 3.查询数据库期间有变更被持久化并从stream删除，数据库快照可能不完整，需要重试
+if((redis.call('get', seqKey) or '0') ~= seq) then
+    return 0
+end
+-- 4.未持久化的变更积压过多，不重建，由调用方稍后重试
+if(redis.call('xlen', streamKey) > limit) then
+    return -1
+end
+
+-- 5.写入数据库快照，分批避免unpack参数过多
+for i = 4, #ARGV, 1000 do
+    redis.call('sadd', followKey, unpack(ARGV, i, math.min(i + 999, #ARGV)))
+end
+
+-- 6.按顺序重放该用户还未持久化的变更
+local entries = redis.call('xrange', streamKey, '-', '+')
+for _, entry in ipairs(entries) do
+    local fields = entry[2]
+    local value = {}
+    for i = 1, #fields, 2 do
+        value[fields[i]] = fields[i + 1]
+    end
+    if(value['userId'] == userId) then
+        if(value['op'] == '1') then
+            redis.call('sadd', followKey, value['followUserId'])
+        else
+            redis.call('srem', followKey, value['followUserId'])
+        end
+    end
+end
+return 1
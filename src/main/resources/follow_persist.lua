@@ -0,0 +1,18 @@
+-- 1.参数列表
+-- 1.1 变更日志stream key
+local streamKey = KEYS[1]
+-- 1.2 已持久化变更数key
+local seqKey = KEYS[2]
+-- 1.3 消费者组，ARGV[2]起为已写入数据库的变更id
+local group = ARGV[1]
+
+-- 2.确认并删除变更，已持久化变更数按实际删除的条数增加，三步原子执行
+-- 重建关注集合或关注图时，据此判断期间被删除的变更是否都已读到
+local ids = {}
+for i = 2, #ARGV do
+    table.insert(ids, ARGV[i])
+end
+redis.call('xack', streamKey, group, unpack(ids))
+local deleted = redis.call('xdel', streamKey, unpack(ids))
+redis.call('incrby', seqKey, deleted)
+return deleted
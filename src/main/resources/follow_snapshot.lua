@@ -0,0 +1,29 @@
+-- 1.参数列表
+-- 1.1 变更日志stream key
+local streamKey = KEYS[1]
+-- 1.2 已持久化变更数key
+local seqKey = KEYS[2]
+-- 1.3 读取变更的上限
+local limit = tonumber(ARGV[1])
+
+-- 2.未持久化的变更积压过多，返回空列表，由调用方稍后重试
+if(redis.call('xlen', streamKey) > limit) then
+    return {}
+end
+
+-- 3.原子地读取已持久化变更数和全部未持久化的变更
+-- 返回值第一个是已持久化变更数，之后每4个一组：id、userId、followUserId、op
+local result = { redis.call('get', seqKey) or '0' }
+local entries = redis.call('xrange', streamKey, '-', '+')
+for _, entry in ipairs(entries) do
+    local fields = entry[2]
+    local value = {}
+    for i = 1, #fields, 2 do
+        value[fields[i]] = fields[i + 1]
+    end
+    table.insert(result, entry[1])
+    table.insert(result, value['userId'])
+    table.insert(result, value['followUserId'])
+    table.insert(result, value['op'])
+end
+return result
@@ -0,0 +1,20 @@
+-- 1.参数列表
+-- 1.1 限流key，zset保存窗口内每次请求的时间
+local key = KEYS[1]
+-- 1.2 当前时间、窗口大小（毫秒）、窗口内允许的请求数、本次请求的唯一id
+local now = tonumber(ARGV[1])
+local window = tonumber(ARGV[2])
+local permits = tonumber(ARGV[3])
+local member = ARGV[4]
+
+-- 2.移除窗口之外的请求
+redis.call('zremrangebyscore', key, 0, now - window)
+-- 3.判断窗口内请求数
+if(redis.call('zcard', key) >= permits) then
+    -- 3.1 超出限制
+    return 0
+end
+-- 4.记录本次请求
+redis.call('zadd', key, now, member)
+redis.call('pexpire', key, window)
+return 1
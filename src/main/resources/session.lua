@@ -0,0 +1,19 @@
+-- 1.参数列表
+-- 1.1 登录token key
+local tokenKey = KEYS[1]
+-- 1.2 剩余有效期低于该值（秒）时才刷新
+local threshold = tonumber(ARGV[1])
+-- 1.3 刷新后的有效期（秒）
+local ttl = ARGV[2]
+
+-- 2.查询用户信息
+local user = redis.call('hgetall', tokenKey)
+if(#user == 0) then
+    -- 2.1 不存在，未登录或已过期
+    return user
+end
+-- 3.剩余有效期不足时刷新
+if(redis.call('ttl', tokenKey) < threshold) then
+    redis.call('expire', tokenKey, ttl)
+end
+return user
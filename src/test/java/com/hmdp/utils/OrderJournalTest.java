@@ -0,0 +1,203 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderJournalTest {
+
+    private static final int SEGMENT_RECORDS = 64;
+
+    @TempDir
+    Path dir;
+
+    private final List<OrderJournal> opened = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        opened.forEach(journal -> ReflectionTestUtils.invokeMethod(journal, "destroy"));
+    }
+
+    @Test
+    void recoverForwardsOrdersAppendedBeforeRestart() throws Exception {
+        OrderJournal journal = open();
+        for (long i = 1; i <= 200; i++) {
+            journal.append(order(i));
+        }
+        // 200条记录，每段64条，滚动出多个段
+        assertTrue(journalFiles().length >= 4);
+        close(journal);
+
+        Set<Long> forwarded = ConcurrentHashMap.newKeySet();
+        open().startForwarder(collect(forwarded));
+        awaitForwarded(forwarded, 200);
+        for (long i = 1; i <= 200; i++) {
+            assertTrue(forwarded.contains(i), "订单" + i + "未转发");
+        }
+        // 已封存并全部转发的段被删除，只剩最后一段和新的写入段
+        waitUntil(() -> journalFiles().length <= 2);
+    }
+
+    @Test
+    void checkpointSkipsForwardedOrdersAfterRestart() throws Exception {
+        OrderJournal journal = open();
+        Set<Long> forwarded = ConcurrentHashMap.newKeySet();
+        journal.startForwarder(collect(forwarded));
+        for (long i = 1; i <= 10; i++) {
+            journal.append(order(i));
+        }
+        awaitForwarded(forwarded, 10);
+        // 等待检查点推进到最后一条记录
+        Thread.sleep(200);
+        close(journal);
+
+        Set<Long> again = ConcurrentHashMap.newKeySet();
+        OrderJournal reopened = open();
+        reopened.startForwarder(collect(again));
+        reopened.append(order(11));
+        awaitForwarded(again, 1);
+        Thread.sleep(200);
+        assertEquals(1, again.size());
+        assertTrue(again.contains(11L));
+    }
+
+    @Test
+    void failedForwardIsRetried() throws Exception {
+        OrderJournal journal = open();
+        Set<Long> forwarded = ConcurrentHashMap.newKeySet();
+        AtomicBoolean failed = new AtomicBoolean();
+        journal.startForwarder(order -> {
+            if (order.getId() == 3 && failed.compareAndSet(false, true)) {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                future.completeExceptionally(new IllegalStateException("mq down"));
+                return future;
+            }
+            forwarded.add(order.getId());
+            return CompletableFuture.completedFuture(null);
+        });
+        for (long i = 1; i <= 5; i++) {
+            journal.append(order(i));
+        }
+        awaitForwarded(forwarded, 5);
+        assertTrue(failed.get());
+    }
+
+    @Test
+    void concurrentAppendsAcrossSegmentsAreAllForwarded() throws Exception {
+        OrderJournal journal = open();
+        Set<Long> forwarded = ConcurrentHashMap.newKeySet();
+        journal.startForwarder(collect(forwarded));
+        // 多个线程并发追加，落盘线程和滚动交替更新段的落盘位置
+        int threads = 8;
+        int perThread = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long base = (long) t * perThread;
+                futures.add(executor.submit(() -> {
+                    for (long i = 1; i <= perThread; i++) {
+                        journal.append(order(base + i));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        awaitForwarded(forwarded, threads * perThread);
+    }
+
+    @Test
+    void appendFailsAfterClose() {
+        OrderJournal journal = open();
+        journal.append(order(1));
+        close(journal);
+        assertThrows(IllegalStateException.class, () -> journal.append(order(2)));
+    }
+
+    @Test
+    void segmentWithoutHeaderIsDeleted() throws Exception {
+        // 模拟新建段后、段头落盘前宕机：文件已扩展但内容全为0
+        File broken = dir.resolve("7.journal").toFile();
+        try (RandomAccessFile file = new RandomAccessFile(broken, "rw")) {
+            file.setLength(64 + 32 * SEGMENT_RECORDS);
+        }
+        OrderJournal journal = open();
+        assertFalse(broken.exists());
+
+        Set<Long> forwarded = ConcurrentHashMap.newKeySet();
+        journal.startForwarder(collect(forwarded));
+        journal.append(order(1));
+        awaitForwarded(forwarded, 1);
+        // 新的写入段编号在被删除的段之后
+        assertTrue(dir.resolve("8.journal").toFile().exists());
+    }
+
+    private OrderJournal open() {
+        OrderJournal journal = new OrderJournal();
+        ReflectionTestUtils.setField(journal, "dir", dir.toString());
+        ReflectionTestUtils.setField(journal, "segmentRecords", SEGMENT_RECORDS);
+        ReflectionTestUtils.invokeMethod(journal, "init");
+        opened.add(journal);
+        return journal;
+    }
+
+    private void close(OrderJournal journal) {
+        ReflectionTestUtils.invokeMethod(journal, "destroy");
+        opened.remove(journal);
+    }
+
+    private File[] journalFiles() {
+        File[] files = dir.toFile().listFiles((d, name) -> name.endsWith(".journal"));
+        return files == null ? new File[0] : files;
+    }
+
+    private static Function<VoucherOrder, CompletableFuture<?>> collect(Set<Long> forwarded) {
+        return order -> {
+            forwarded.add(order.getId());
+            return CompletableFuture.completedFuture(null);
+        };
+    }
+
+    private static VoucherOrder order(long id) {
+        VoucherOrder order = new VoucherOrder();
+        order.setId(id);
+        order.setUserId(1000 + id);
+        order.setVoucherId(10L);
+        return order;
+    }
+
+    private static void awaitForwarded(Set<Long> forwarded, int count) throws InterruptedException {
+        waitUntil(() -> forwarded.size() >= count);
+        assertEquals(count, forwarded.size());
+    }
+
+    private static void waitUntil(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(condition.getAsBoolean(), "等待超时");
+    }
+}